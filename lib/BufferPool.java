@@ -0,0 +1,80 @@
+/**
+ * <pre>
+ * A pool of byte arrays for packed packets, so that sending and delivering a packet does not allocate.
+ * Arrays come in size classes, powers of two from MIN_BUFFER_SIZE up to Packet.MAX_PACKET_SIZE, and an
+ * acquired array may be longer than asked for: its users carry the length of the packet alongside it.
+ *
+ * A pool is not thread safe. Each Partition has its own, reached through Manager.acquireBuffer and
+ * Manager.releaseBuffer. An array acquired from one pool may be released to another.
+ * </pre>
+ */
+public class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 16;
+    // Most arrays kept per size class. More than that are left to the garbage collector
+    public static final int MAX_FREE = 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    private byte[][][] free;  // free arrays, a stack per size class
+    private int[] count;
+    private long allocated;
+
+    public BufferPool() {
+	int classes = BufferPool.sizeClass(Packet.MAX_PACKET_SIZE) + 1;
+	this.free = new byte[classes][MAX_FREE][];
+	this.count = new int[classes];
+	this.allocated = 0;
+    }
+
+    /**
+     * Takes an array from the pool
+     * @param size The number of bytes needed
+     * @return An array of at least size bytes. Its contents are left over from its last use.
+     *         Larger than Packet.MAX_PACKET_SIZE is allowed, but such arrays are not pooled
+     */
+    public byte[] acquire(int size) {
+	if (size > Packet.MAX_PACKET_SIZE) {
+	    this.allocated++;
+	    return new byte[size];
+	}
+	int c = BufferPool.sizeClass(size);
+	if (this.count[c] == 0) {
+	    this.allocated++;
+	    return new byte[MIN_BUFFER_SIZE << c];
+	}
+	byte[] buf = this.free[c][--this.count[c]];
+	this.free[c][this.count[c]] = null;
+	return buf;
+    }
+
+    /**
+     * Gives an array back to the pool. The caller must not use it afterwards
+     * @param buf The array. Arrays whose length is not a size class are ignored
+     */
+    public void release(byte[] buf) {
+	int n = buf.length;
+	if (n < MIN_BUFFER_SIZE || n > Packet.MAX_PACKET_SIZE || (n & (n - 1)) != 0) {
+	    return;
+	}
+	int c = BufferPool.sizeClass(n);
+	if (this.count[c] < MAX_FREE) {
+	    this.free[c][this.count[c]++] = buf;
+	}
+    }
+
+    /**
+     * @return The number of arrays this pool had to allocate
+     */
+    public long getAllocated() {
+	return this.allocated;
+    }
+
+    // index of the smallest size class that holds size bytes
+    private static int sizeClass(int size) {
+	if (size <= MIN_BUFFER_SIZE) {
+	    return 0;
+	}
+	return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
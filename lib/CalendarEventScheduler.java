@@ -0,0 +1,196 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <pre>
+ * Calendar queue (R. Brown, CACM 1988) of Events.
+ * Time is divided into "days" of a fixed width, and a year of days is mapped onto an array of buckets,
+ * each holding a short sorted list. Dense timestamps make insertion and removal O(1) on average.
+ * The number of buckets and the day width are re-estimated whenever the queue grows or shrinks by 2x.
+ * Events with the same time to occur are kept in order of seq within their bucket.
+ * </pre>
+ */
+public class CalendarEventScheduler implements EventScheduler {
+
+    private static final int MIN_BUCKETS = 2;
+    // number of events sampled to estimate the day width on resize
+    private static final int WIDTH_SAMPLES = 25;
+
+    private static final Comparator<Event> ORDER = new Comparator<Event>() {
+	    public int compare(Event a, Event b) {
+		return a.before(b) ? -1 : (b.before(a) ? 1 : 0);
+	    }
+	};
+
+    private Event[] buckets;
+    private long width;      // width of one day, in microseconds
+    private int size;
+
+    // scan position: the bucket holding the current day, and the end of that day
+    private int currentBucket;
+    private long currentDayEnd;
+
+    // cached result of the last search for the next event
+    private Event next;
+    private int nextBucket;
+
+    public CalendarEventScheduler() {
+	this.size = 0;
+	this.init(MIN_BUCKETS, 1000, 0);
+    }
+
+    public void add(Event event) {
+	long time = event.timeToOccur();
+	if (time < this.currentDayEnd - this.width) {
+	    // earlier than the scan position, so move the scan back to it
+	    this.moveTo(time);
+	}
+	this.insert(event);
+	this.size++;
+	if (this.next != null && event.before(this.next)) {
+	    this.next = null;
+	}
+	if (this.size > 2 * this.buckets.length) {
+	    this.resize(2 * this.buckets.length);
+	}
+    }
+
+    public Event peek() {
+	return this.findNext();
+    }
+
+    public Event poll() {
+	Event event = this.findNext();
+	if (event == null) {
+	    return null;
+	}
+	this.buckets[this.nextBucket] = event.next;
+	event.next = null;
+	this.next = null;
+	this.size--;
+	if (this.size < this.buckets.length / 2 && this.buckets.length > MIN_BUCKETS) {
+	    this.resize(this.buckets.length / 2);
+	}
+	return event;
+    }
+
+    public boolean remove(Event event) {
+	int i = (int) ((event.timeToOccur() / this.width) % this.buckets.length);
+	Event prev = null;
+	for (Event e = this.buckets[i]; e != null; prev = e, e = e.next) {
+	    if (e == event) {
+		if (prev == null) {
+		    this.buckets[i] = e.next;
+		} else {
+		    prev.next = e.next;
+		}
+		e.next = null;
+		this.size--;
+		if (this.next == event) {
+		    this.next = null;
+		}
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * Locates the next event without removing it, advancing the scan position up to it
+     */
+    private Event findNext() {
+	if (this.next != null || this.size == 0) {
+	    return this.next;
+	}
+
+	int n = this.buckets.length;
+	// scan one year of days starting from the current one
+	for (int i = 0; i < n; i++) {
+	    Event head = this.buckets[this.currentBucket];
+	    if (head != null && head.timeToOccur() < this.currentDayEnd) {
+		this.next = head;
+		this.nextBucket = this.currentBucket;
+		return head;
+	    }
+	    this.currentBucket = (this.currentBucket + 1 == n) ? 0 : this.currentBucket + 1;
+	    this.currentDayEnd += this.width;
+	}
+
+	// nothing within a year: fall back to a direct search of all bucket heads
+	Event min = null;
+	for (int i = 0; i < n; i++) {
+	    Event head = this.buckets[i];
+	    if (head != null && (min == null || head.before(min))) {
+		min = head;
+	    }
+	}
+	this.moveTo(min.timeToOccur());
+	this.next = min;
+	this.nextBucket = this.currentBucket;
+	return min;
+    }
+
+    private void moveTo(long time) {
+	long day = time / this.width;
+	this.currentBucket = (int) (day % this.buckets.length);
+	this.currentDayEnd = (day + 1) * this.width;
+	this.next = null;
+    }
+
+    private void insert(Event event) {
+	int i = (int) ((event.timeToOccur() / this.width) % this.buckets.length);
+	Event head = this.buckets[i];
+	if (head == null || event.before(head)) {
+	    event.next = head;
+	    this.buckets[i] = event;
+	    return;
+	}
+	Event prev = head;
+	while (prev.next != null && !event.before(prev.next)) {
+	    prev = prev.next;
+	}
+	event.next = prev.next;
+	prev.next = event;
+    }
+
+    private void init(int numBuckets, long width, long startTime) {
+	this.buckets = new Event[numBuckets];
+	this.width = width;
+	this.moveTo(startTime);
+    }
+
+    /**
+     * Rebuilds the calendar with a new number of buckets and a day width estimated from
+     * the average separation of the earliest queued events
+     */
+    private void resize(int numBuckets) {
+	Event[] events = new Event[this.size];
+	int count = 0;
+	for (int i = 0; i < this.buckets.length; i++) {
+	    for (Event e = this.buckets[i]; e != null; ) {
+		Event following = e.next;
+		e.next = null;
+		events[count++] = e;
+		e = following;
+	    }
+	}
+	Arrays.sort(events, ORDER);
+
+	long newWidth = this.width;
+	int samples = Math.min(count, WIDTH_SAMPLES);
+	if (samples > 1) {
+	    long span = events[samples - 1].timeToOccur() - events[0].timeToOccur();
+	    newWidth = Math.max(1, 3 * span / (samples - 1));
+	}
+
+	this.init(numBuckets, newWidth, count > 0 ? events[0].timeToOccur() : 0);
+	// insert in reverse order so that each insertion lands at the head of its bucket
+	for (int i = count - 1; i >= 0; i--) {
+	    this.insert(events[i]);
+	}
+    }
+}
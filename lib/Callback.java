@@ -1,10 +1,16 @@
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <pre>   
  * Generic class to facilate use of callbacks
- * Also provides a static helper function to get an object of Method that can be passed to the constructor of this class
+ *
+ * The preferred way to build a callback is from a Task, which is invoked directly without reflection:
+ *         Callback cb = new Callback(() -> foo("fooTest"));
+ *
+ * Callbacks can also be built from a reflective Method. This is kept for compatibility.
+ * The static helper function getMethod returns an object of Method that can be passed to the constructor of this class.
  * Example:
  *         To get a Method object for the method public foo(String str) in class Test:
  *         String[] paramTypes = {"java.lang.String"};
@@ -12,14 +18,36 @@ import java.lang.reflect.InvocationTargetException;
  *         Callback cb = new Callback(method, this, "fooTest");
  *
  * The above code snippet assumes that it is written inside class Test, hence the use of this.
- * The method must have public visibility.
+ * The method must have public visibility. Lookups are cached per class, method name and parameter types.
  * </pre>   
  */
 public class Callback {
+
+    /**
+     * The work performed by a typed callback
+     */
+    public interface Task {
+	public void run() throws Exception;
+    }
+
+    // Methods already looked up, keyed by class, then by method name and parameter types
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Method>> methodCache =
+	new ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Method>>();
+    private static final ConcurrentHashMap<String, Class<?>> classCache = new ConcurrentHashMap<String, Class<?>>();
+
+    private Task task;
     private Method method;
     private Object obj;
     private Object[] params;
 
+    /**
+     * Initializes a typed callback
+     * @param task The task to be run when the callback is invoked
+     */
+    public Callback(Task task) {
+	this.task = task;
+    }
+
     /**
      * Initializes member variables
      * @param method The method to be invoked
@@ -44,10 +72,21 @@ public class Callback {
     /**
      * Invokes the callback
      * @throws IllegalAccessException Thrown by invoke method in class Method 
-     * @throws InvocationTargetException Thrown by invoke method in class Method, if the underlying method throws an exception
+     * @throws InvocationTargetException Thrown by invoke method in class Method, or if the underlying method or task
+     *                                   throws an exception
      */
     public void invoke() throws IllegalAccessException, InvocationTargetException {
-	this.method.invoke(this.obj, this.params);
+	if (this.task == null) {
+	    this.method.invoke(this.obj, this.params);
+	    return;
+	}
+	try {
+	    this.task.run();
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new InvocationTargetException(e);
+	}
     }
 
     /**
@@ -64,7 +103,34 @@ public class Callback {
 												  NoSuchMethodException, 
 												  SecurityException 
     {
-	return obj.getClass().getMethod(methodName, Callback.getParameterTypes(parameterTypes));
+	Class<?> cls = obj.getClass();
+	ConcurrentHashMap<String, Method> methods = methodCache.get(cls);
+	if (methods == null) {
+	    methods = new ConcurrentHashMap<String, Method>();
+	    ConcurrentHashMap<String, Method> existing = methodCache.putIfAbsent(cls, methods);
+	    if (existing != null) {
+		methods = existing;
+	    }
+	}
+
+	String key = Callback.getSignature(methodName, parameterTypes);
+	Method method = methods.get(key);
+	if (method == null) {
+	    method = cls.getMethod(methodName, Callback.getParameterTypes(parameterTypes));
+	    methods.put(key, method);
+	}
+	return method;
+    }
+
+    private static String getSignature(String methodName, String[] parameterTypes) {
+	if ((parameterTypes == null) || (parameterTypes.length == 0)) {
+	    return methodName;
+	}
+	StringBuilder signature = new StringBuilder(methodName);
+	for (int i = 0; i < parameterTypes.length; i++) {
+	    signature.append(i == 0 ? '(' : ',').append(parameterTypes[i]);
+	}
+	return signature.append(')').toString();
     }
 
     private static Class[] getParameterTypes(String[] parameterTypes) throws ClassNotFoundException {
@@ -74,7 +140,12 @@ public class Callback {
 
 	Class[] paramTypes = new Class[parameterTypes.length];
 	for(int i = 0; i < paramTypes.length; i++) {
-	    paramTypes[i] = Class.forName(parameterTypes[i]);
+	    Class<?> type = classCache.get(parameterTypes[i]);
+	    if (type == null) {
+		type = Class.forName(parameterTypes[i]);
+		classCache.put(parameterTypes[i], type);
+	    }
+	    paramTypes[i] = type;
 	}
 	return paramTypes;
     }
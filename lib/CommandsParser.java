@@ -22,11 +22,12 @@ import java.io.IOException;
  * Nodes (e.g., a, b) are referred to by their FishnetAddress (0..254).
  *
  *	[// | #] <comment>  -- any line starting with // or # is ignored
- *	edge a b [lossRate <double>] [delay <long>] [bw <int>] [bt <long>]
+ *	edge a b [lossRate <double>] [delay <long>] [bw <int>] [bt <long>] [ecn <long>]
  *		-- this creates an edge between a and b, with the
- *		specified loss rate, delay (in milliseconds), bw (in B/s), and buffering time (in milliseconds)
+ *		specified loss rate, delay (in milliseconds), bw (in B/s), buffering time (in milliseconds),
+ *		and ECN marking threshold (in milliseconds of queueing, 0 to never mark)
  *		or changes the specifics for an existing link
- *		defaults: 0 lossRate, 1 msec delay, 10KB/s bw, and 250 msec buffering time
+ *		defaults: 0 lossRate, 1 msec delay, 10KB/s bw, 250 msec buffering time, and 0 ecn
  *	time [+ ]x  -- any subsequent command is delayed until simulation/real
  *			has reached x (or now + x, if + is used), in milliseconds from start
  *                    NOTE: IF + IS USED THERE MUST BE A SPACE BETWEEN + AND x
@@ -211,6 +212,11 @@ public abstract class CommandsParser {
                  *
                  * support specification of buffering time
                  */
+                case 13:
+                    if (cmd[11].equals("ecn")) {
+                        options.setECN(Long.parseLong(cmd[12]));
+                    }
+
                 case 11:
                     if (cmd[9].equals("bt")) {
                         options.setBT(Integer.valueOf(cmd[10]).longValue());
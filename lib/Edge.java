@@ -1,3 +1,5 @@
+import java.util.Random;
+
 /**
  * <pre>
  * Edge stores the specifics about each edge in the topology.
@@ -10,6 +12,7 @@ public class Edge {
     private boolean live;
     private long[] nextPktSendTime;  // When can the next packet be put onto the wire (in microseconds)
     private EdgeOptions options;
+    private Random[] random;  // Decides which packets are lost, one per direction
 
     /**
      * Create a live edge between nodes a and b
@@ -25,6 +28,27 @@ public class Edge {
 	this.insertSendTime(a, 0);
 	this.insertSendTime(b, 0);
 	this.options = options;
+	this.random = new Random[] { new Random(), new Random() };
+    }
+
+    /**
+     * Seeds the decisions about which packets are lost, so that a run can be repeated.
+     * Each direction has its own generator, so the decisions do not depend on the order in which the two ends send
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+	long edge = seed + this.a * 0x9E3779B97F4A7C15L + this.b * 0xC2B2AE3D27D4EB4FL;
+	this.random[0] = new Random(edge);
+	this.random[1] = new Random(edge + 1);
+    }
+
+    /**
+     * The least time a packet of the given size can take to cross this edge, whatever its state and load
+     * @param size The size of the packet in bytes
+     * @return The time in microseconds
+     */
+    public long minTransitTime(int size) {
+	return size * 1000000 / this.options.getBW() + this.options.getDelay() * 1000;
     }
 
 
@@ -58,7 +82,7 @@ public class Edge {
          */
 	this.insertSendTime(src, result + size * 1000000 / this.options.getBW());
 
-	if(!this.live || Math.random() < this.options.getLossRate()) {
+	if(!this.live || this.random[this.getIndex(src)].nextDouble() < this.options.getLossRate()) {
 	    return -1; // pkt was dropped
 	}
 
@@ -77,12 +101,15 @@ public class Edge {
      * bandwidth propogation delay buffer characteristics.
      * @param manager The manager that is scheduling the packet
      * @param src The src node that wants to send the packet
+     * @param pkt The packed packet. It is marked congestion experienced if it is ECN-capable and has to wait
+     *            in the queue for longer than the ECN marking threshold
+     * @param off Where the packet starts in pkt
      * @param size The size of the packet in bytes
      * @param now The current time in microseconds
      * @return The time (in microseconds) when the next packet will arrive at the destination. Returns -1 if the packet is dropped/lost
      * @throws IllegalArgumentException Thrown if size is greater than Packet.MAX_PACKET_SIZE
      */
-    public long schedulePkt(Manager manager, int src, int size, long now) throws IllegalArgumentException {
+    public long schedulePkt(Manager manager, int src, byte[] pkt, int off, int size, long now) throws IllegalArgumentException {
         if (size > Packet.MAX_PACKET_SIZE) {
             throw new IllegalArgumentException("Packet size must be less than Packet.MAX_PACKET_SIZE. Size = " +
                                                String.valueOf(size));
@@ -109,12 +136,18 @@ public class Edge {
         }
         this.insertSendTime(src, finishTime);
 
-        if(!this.live || Math.random() < this.options.getLossRate()) {
+        if(!this.live || this.random[this.getIndex(src)].nextDouble() < this.options.getLossRate()) {
             // packet lost due to dead link or transmission error
             manager.packetLost();
             return -1;
         }
 
+        if (this.options.getECN() > 0 && currentPktSendTime - now > this.options.getECN() * 1000 &&
+            Packet.markCongestionExperienced(pkt, off)) {
+            // queued for longer than the marking threshold
+            manager.packetMarked();
+        }
+
         return  finishTime + (this.options.getDelay() * 1000);
     }
 
@@ -14,16 +14,21 @@ public class EdgeOptions {
      * buffering time (in milliseconds)
      */
     long bt;
+    // ECN marking threshold (in milliseconds): ECN-capable packets that have to wait longer than this
+    // in the link's queue are marked congestion experienced. 0 for no marking
+    long ecn;
 
     /**
      * Initializes loss rate to 0. Lossless link by default.
-     * Initializes delay to 1 millisecond and bandwidth to 10KB/s
+     * Initializes delay to 1 millisecond and bandwidth to 10KB/s.
+     * No ECN marking by default
      */
     public EdgeOptions() {
 	lossRate = 0.0;
 	delay = 1;
 	bw = 10000;
         bt = 250;
+	ecn = 0;
     }
 
     /**
@@ -96,4 +101,20 @@ public class EdgeOptions {
     public void setBT(long bt) {
         this.bt = bt;
     }
+
+    /**
+     * Returns the ECN marking threshold
+     * @return The threshold in milliseconds, 0 if packets are not marked
+     */
+    public long getECN() {
+	return ecn;
+    }
+
+    /**
+     * Sets the ECN marking threshold
+     * @param ecn The new threshold, in milliseconds of queueing delay. 0 for no marking
+     */
+    public void setECN(long ecn) {
+	this.ecn = ecn;
+    }
 }
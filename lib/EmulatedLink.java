@@ -35,11 +35,14 @@ public class EmulatedLink {
      * Figure out when, in microseconds, a packet should be physically send out to the destination, given a link's
      * bandwidth propogation delay characteristics.
      * @param manager The manager that is scheduling the packet
+     * @param pkt The array holding the packet. It is marked congestion experienced if it is ECN-capable and has to
+     *            wait in the queue for longer than the ECN marking threshold
+     * @param off Where the packet starts in pkt
      * @param size The size of the packet in bytes
      * @param now The current time in microseconds
      * @return The time (in microseconds) when the packet should be physically send out to the destination. Returns -1 if the packet is dropped/lost
      */
-    public long schedulePkt(Manager manager, int size, long now) {
+    public long schedulePkt(Manager manager, byte[] pkt, int off, int size, long now) {
         long currentPktSendTime = Math.max(now, this.nextPktSendTime);
         /*
          * Mar. 13, 2006
@@ -61,6 +64,12 @@ public class EmulatedLink {
             return -1;
         }
 
+        if (this.options.getECN() > 0 && currentPktSendTime - now > this.options.getECN() * 1000 &&
+            Packet.markCongestionExperienced(pkt, off)) {
+            // queued for longer than the marking threshold
+            manager.packetMarked();
+        }
+
         return  finishTime + (this.options.getDelay() * 1000);
     }
 }
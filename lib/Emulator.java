@@ -13,6 +13,7 @@ import java.lang.Integer;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Arrays;
 
 /**
  * Manages an emulated node
@@ -108,7 +109,7 @@ public class Emulator extends Manager {
 
 		    this.sortedEvents.removeNextEvent();
 		    try {
-			nextEvent.callback().invoke();
+			this.runEvent(nextEvent);
 		    }catch(Exception e) {
 			System.err.println("Exception while trying to invoke method in Emulator. Error: " + e);
 			e.printStackTrace();
@@ -166,18 +167,28 @@ public class Emulator extends Manager {
     }
 
     /**
-     * Send the pkt to the specified node
+     * Puts a packet on the wire. See Manager.transmit
      * @param from The node that is sending the packet
      * @param to Int spefying the destination node
-     * @param pkt The packet to be sent, serialized to a byte array
+     * @param buf The array holding the packet
+     * @param len The length of the packet
+     * @param pooled True if buf must be released once the packet is delivered or dropped
      * @return True if the packet was sent, false otherwise
-     * @throws IllegalArgumentException If the arguments are invalid
      */
-    public boolean sendPkt(int from, int to, byte[] pkt) throws IllegalArgumentException {
-	super.sendPkt(from, to, pkt);  // check arguments
-	this.refreshARP();
-	EmulatorPacket emulatorPacket = new EmulatorPacket(to, from, pkt);
-	byte[] payload = emulatorPacket.pack();
+    protected boolean transmit(int from, int to, byte[] buf, int len, boolean pooled) {
+	byte[] pkt;
+	byte[] payload;
+	try {
+	    this.refreshARP();
+	    pkt = (len == buf.length) ? buf : Arrays.copyOf(buf, len);
+	    EmulatorPacket emulatorPacket = new EmulatorPacket(to, from, pkt);
+	    payload = emulatorPacket.pack();
+	} finally {
+	    if(pooled) {
+		// packing copied the packet, or failed
+		this.releaseBuffer(buf);
+	    }
+	}
 	if(payload == null) {
 	    return false;
 	}
@@ -232,6 +243,14 @@ public class Emulator extends Manager {
 	return Utility.fishTime() / 1000;
     }
 
+    /**
+     * Retrieve current time in microseconds. The system clock only has milliseconds
+     * @return Current time in microseconds
+     */
+    public long nowMicros() {
+	return Utility.fishTime();
+    }
+
     private int getFishAddress() throws NumberFormatException, IOException {
 	this.trawlerWriter.println(this.udpSocket.getLocalPort());
 	return Integer.parseInt(this.trawlerReader.readLine());
@@ -263,7 +282,7 @@ public class Emulator extends Manager {
         } else {
             // physical link emulation, schedule transmission
             long currentTime = Utility.fishTime();
-            long timeToDeliver = link.schedulePkt(this, size, currentTime);
+            long timeToDeliver = link.schedulePkt(this, packet.getData(), EmulatorPacket.HEADER_SIZE, size, currentTime);
 
             if(timeToDeliver == -1) {
                 return;  // packet dropped/lost
@@ -281,17 +300,9 @@ public class Emulator extends Manager {
                 timeToDeliver += 1000 - usecFraction;
             }
 
-            String[] paramTypes = {
-                "java.net.DatagramPacket",
-                "java.net.InetAddress",
-                "java.lang.Integer"
-            };
-            Object[] params = {
-                packet,
-                arpData.getIPAddress(),
-                Integer.valueOf(arpData.getPort())
-            };
-            this.addEvent(timeToDeliver, "physicalSend", this, paramTypes, params);
+            InetAddress address = arpData.getIPAddress();
+            int port = arpData.getPort();
+            this.addEvent(timeToDeliver, new Callback(() -> this.physicalSend(packet, address, port)));
         }
     }
 
@@ -305,9 +316,9 @@ public class Emulator extends Manager {
      */
     public void physicalSend(DatagramPacket packet,
                              InetAddress address,
-                             Integer port) throws IOException {
+                             int port) throws IOException {
         packet.setAddress(address);
-        packet.setPort(port.intValue());
+        packet.setPort(port);
         this.udpSocket.send(packet);
     }
 
@@ -8,13 +8,55 @@ public class Event {
     private long timeToOccur;
     private Callback cb;
 
+    // Tie-breaker assigned when the event is queued. Events that occur at the same time are run in this order
+    long seq;
+    // Address of the node whose state the event touches, -1 for the manager's own events
+    int owner;
+    // True while the event is in a SortedEventQueue
+    boolean queued;
+    // True if the Manager may reuse this event once it has run. Timer handles given out to nodes are never recycled
+    boolean recyclable;
+    // Bookkeeping owned by the EventScheduler holding this event, or the Manager's free list
+    int index;
+    Event next;
+
     /**
      * @param timeToOccur The time at which the event should take place.
      * @param cb The callback to be invoked
      */
     public Event(long timeToOccur, Callback cb) {
+	this.set(timeToOccur, cb);
+	this.owner = -1;
+	this.queued = false;
+	this.recyclable = false;
+    }
+
+    /**
+     * Reuses this event. Must not be called while the event is queued
+     * @param timeToOccur The time at which the event should take place.
+     * @param cb The callback to be invoked
+     */
+    void set(long timeToOccur, Callback cb) {
 	this.timeToOccur = timeToOccur;
 	this.cb = cb;
+	this.index = -1;
+	this.next = null;
+    }
+
+    /**
+     * Moves this event to another time. Must not be called while the event is queued
+     * @param timeToOccur The time at which the event should take place.
+     */
+    void setTimeToOccur(long timeToOccur) {
+	this.timeToOccur = timeToOccur;
+    }
+
+    /**
+     * Tests if this event is waiting to be run. A timer that has fired or has been cancelled is not pending
+     * @return True if the event is queued
+     */
+    public boolean isPending() {
+	return this.queued;
     }
 
     /**
@@ -33,4 +75,14 @@ public class Event {
     public Callback callback() {
 	return this.cb;
     }
+
+    /**
+     * Tests if this event should be run before another one
+     * @param other The event to compare against
+     * @return True if this event occurs earlier, or at the same time but has a smaller seq
+     */
+    public boolean before(Event other) {
+	return this.timeToOccur < other.timeToOccur ||
+	    (this.timeToOccur == other.timeToOccur && this.seq < other.seq);
+    }
 }
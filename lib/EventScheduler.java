@@ -0,0 +1,37 @@
+/**
+ * <pre>
+ * The priority queue used by SortedEventQueue to keep Events ordered.
+ * Implementations must return events ordered by time to occur, and events with the same time
+ * in order of their seq (see Event.before), which need not be the order they were added (see SortedEventQueue).
+ * </pre>
+ */
+public interface EventScheduler {
+
+    /**
+     * Add an event
+     * @param event The event to add
+     */
+    public void add(Event event);
+
+    /**
+     * @return The next event to happen, without removing it. Null if empty
+     */
+    public Event peek();
+
+    /**
+     * @return The next event to happen, after removing it. Null if empty
+     */
+    public Event poll();
+
+    /**
+     * Remove a queued event
+     * @param event The event to remove
+     * @return True if the event was queued in this scheduler
+     */
+    public boolean remove(Event event);
+
+    /**
+     * @return The number of queued events
+     */
+    public int size();
+}
@@ -6,23 +6,35 @@ import java.net.SocketException;
 /**
  * <pre>   
  * Class with main method that starts up a Manager. Either an Emulator or a Simulator
- * Usage:  java Fishnet <simulate> <num nodes> <topo file> [fishnet file] [timescale]
+ * Usage:  java Fishnet <simulate> <num nodes> <topo file> [fishnet file] [timescale | batch[:horizon]] [scheduler] [workers] [seed]
  *         or
  *         java Fishnet <emulate> <trawler host name> <trawler port> <local port to use> [fishnet file]
  *         
  *         Arguments in <> are required and arguments in [] are optional. Fishnet file is a file with commands for a node
  *         Topofile is the topology file to use. It also have commands for a node.
+ *         Scheduler is the event queue implementation: list, heap (default) or calendar.
+ *         batch runs the simulation headless, without reading user input or waiting for real time, until no
+ *         events are left or until the simulated time reaches horizon (in milliseconds), and then prints a summary.
+ *         Workers is the number of threads a batch simulation runs on (default 1). The output does not depend on it.
+ *         Seed makes the random numbers of the simulation, such as which packets are lost, repeatable.
  * </pre>   
  */
 public class Fishnet {
+
+    private static final String BATCH = "batch";
     
     private static void usage() {
-	System.out.println("Usage:  java Fishnet <simulate> <num nodes> <topo file> [fishnet file] [timescale]\n" + 
+	System.out.println("Usage:  java Fishnet <simulate> <num nodes> <topo file> [fishnet file] [timescale | batch[:horizon]] [scheduler] [workers] [seed]\n" + 
 			   "or\n" + 
 			   "java Fishnet <emulate> <trawler host name> <trawler port> <local port to use> [fishnet file]\n\n" +          
 			   "Arguments in <> are required and arguments in [] are optional.\n" +  
 			   "Fishnet file is a file with commands for a node\n" + 
-			   "Topofile is the topology file to use. It also have commands for a node.");
+			   "Topofile is the topology file to use. It also have commands for a node.\n" +
+			   "Scheduler is the event queue implementation: list, heap (default) or calendar.\n" +
+			   "batch runs the simulation without user input or real-time waits, until no events are left\n" +
+			   "or until the simulated time reaches horizon (in milliseconds).\n" +
+			   "Workers is the number of threads a batch simulation runs on (default 1).\n" +
+			   "Seed makes the random numbers of the simulation repeatable.");
     }
 
     /**
@@ -42,8 +54,9 @@ public class Fishnet {
 	    if(args[0].equals("simulate")) {
 		int numNodes = Integer.parseInt(args[1]);
 		String topoFile = args[2];
+		Simulator simulator;
 		try {
-		    manager = new Simulator(numNodes, topoFile);
+		    manager = simulator = new Simulator(numNodes, topoFile);
 		}catch(IllegalArgumentException e) {
 		    System.err.println("Illegal arguments given to Simulator. Exception: " + e);
 		    return;
@@ -53,9 +66,28 @@ public class Fishnet {
 		}
 
 		switch(args.length) {
+		case 8:
+		    simulator.setSeed(Long.parseLong(args[7]));
+		case 7:
+		    simulator.setWorkers(Integer.parseInt(args[6]));
+		case 6:
+		    try {
+			manager.setEventScheduler(args[5]);
+		    }catch(IllegalArgumentException e) {
+			System.err.println("Illegal scheduler given to Simulator. Exception: " + e);
+			return;
+		    }
 		case 5: 
-		    double timescale = Double.parseDouble(args[4]);
-		    manager.setTimescale(timescale);
+		    if(args[4].startsWith(BATCH)) {
+			long horizon = -1;
+			if(args[4].startsWith(BATCH + ":")) {
+			    horizon = Long.parseLong(args[4].substring(BATCH.length() + 1));
+			}
+			simulator.setBatch(horizon);
+		    }else {
+			double timescale = Double.parseDouble(args[4]);
+			manager.setTimescale(timescale);
+		    }
 		case 4:
 		    if(!noFile.equals(args[3])) {
 			manager.setFishnetFile(args[3]);
@@ -0,0 +1,104 @@
+/**
+ * <pre>
+ * Binary min-heap of Events. Insertion and removal are O(log n).
+ * Ties on time to occur are broken by seq, so equal-time events stay in the order they were stamped.
+ * </pre>
+ */
+public class HeapEventScheduler implements EventScheduler {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Event[] heap;
+    private int size;
+
+    public HeapEventScheduler() {
+	this.heap = new Event[INITIAL_CAPACITY];
+	this.size = 0;
+    }
+
+    public void add(Event event) {
+	if (this.size == this.heap.length) {
+	    Event[] larger = new Event[this.heap.length * 2];
+	    System.arraycopy(this.heap, 0, larger, 0, this.size);
+	    this.heap = larger;
+	}
+	this.siftUp(this.size++, event);
+    }
+
+    public Event peek() {
+	return (this.size == 0) ? null : this.heap[0];
+    }
+
+    public Event poll() {
+	if (this.size == 0) {
+	    return null;
+	}
+	Event first = this.heap[0];
+	Event last = this.heap[--this.size];
+	this.heap[this.size] = null;
+	if (this.size > 0) {
+	    this.siftDown(0, last);
+	}
+	first.index = -1;
+	return first;
+    }
+
+    public boolean remove(Event event) {
+	int i = event.index;
+	if (i < 0 || i >= this.size || this.heap[i] != event) {
+	    return false;
+	}
+	Event last = this.heap[--this.size];
+	this.heap[this.size] = null;
+	if (last != event) {
+	    // move the last event into the hole and restore the heap order in whichever direction is needed
+	    this.siftDown(i, last);
+	    if (this.heap[i] == last) {
+		this.siftUp(i, last);
+	    }
+	}
+	event.index = -1;
+	return true;
+    }
+
+    public int size() {
+	return this.size;
+    }
+
+    private void siftUp(int i, Event event) {
+	while (i > 0) {
+	    int parent = (i - 1) >>> 1;
+	    Event p = this.heap[parent];
+	    if (!event.before(p)) {
+		break;
+	    }
+	    this.place(i, p);
+	    i = parent;
+	}
+	this.place(i, event);
+    }
+
+    private void siftDown(int i, Event event) {
+	int half = this.size >>> 1;
+	while (i < half) {
+	    int child = (i << 1) + 1;
+	    Event c = this.heap[child];
+	    int right = child + 1;
+	    if (right < this.size && this.heap[right].before(c)) {
+		child = right;
+		c = this.heap[right];
+	    }
+	    if (!c.before(event)) {
+		break;
+	    }
+	    this.place(i, c);
+	    i = child;
+	}
+	this.place(i, event);
+    }
+
+    private void place(int i, Event event) {
+	this.heap[i] = event;
+	event.index = i;
+    }
+}
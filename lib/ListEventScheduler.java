@@ -0,0 +1,47 @@
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * <pre>
+ * The original Fishnet scheduler: a linked list kept sorted by linear insertion.
+ * Insertion is O(n), removal of the next event is O(1).
+ * </pre>
+ */
+public class ListEventScheduler implements EventScheduler {
+
+    private LinkedList<Event> eventList;
+
+    public ListEventScheduler() {
+	this.eventList = new LinkedList<Event>();
+    }
+
+    public void add(Event event) {
+	ListIterator<Event> sortedIterator = this.eventList.listIterator();
+
+	while (sortedIterator.hasNext()) {
+	    if (event.before(sortedIterator.next())) {
+		sortedIterator.previous();
+		sortedIterator.add(event);
+		return;
+	    }
+	}
+	//If you've gotten to the end of the list, add it there.
+	this.eventList.add(event);
+    }
+
+    public Event peek() {
+	return this.eventList.peekFirst();
+    }
+
+    public Event poll() {
+	return this.eventList.pollFirst();
+    }
+
+    public boolean remove(Event event) {
+	return this.eventList.remove(event);
+    }
+
+    public int size() {
+	return this.eventList.size();
+    }
+}
@@ -3,6 +3,8 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <pre>
@@ -11,9 +13,15 @@ import java.lang.reflect.Method;
  */
 public abstract class Manager {
 
-    private int pktsSent;
+    private AtomicInteger pktsSent;
     private long start;
+    private Partition main;            // the partition running every node, unless a subclass splits them up
     protected SortedEventQueue sortedEvents;
+    // events created so far by each node, indexed by address + 1 so that the manager's own events come first
+    private long[] created;
+    private Long seed;                 // seed for the nodes' random numbers, null to seed them differently every run
+    private Random[] randoms;
+    private String scheduler;          // name of the event scheduler, see SortedEventQueue
     protected CommandsParser parser;   // parser for fishnet commands file
     protected BufferedReader reader;
     /*
@@ -21,26 +29,34 @@ public abstract class Manager {
      * Hao Wang
      */
     // number of packets dropped due to buffer overflow
-    private int pktsDropped;
+    private AtomicInteger pktsDropped;
     // number of packets lost due to transmission error
-    private int pktsLost;
+    private AtomicInteger pktsLost;
+    // number of packets marked congestion experienced, see EdgeOptions.setECN
+    private AtomicInteger pktsMarked;
 
     /**
      * Initialize Manager.
      * @param time Starting time in microseconds
      */
     protected Manager(long time) {
-	this.pktsSent = 0;
+	this.pktsSent = new AtomicInteger();
 	this.start = time / 1000;
-	this.sortedEvents = new SortedEventQueue();
+	this.main = new Partition();
+	this.sortedEvents = this.main.events;
+	this.created = new long[Packet.MAX_ADDRESS + 2];
+	this.seed = null;
+	this.randoms = new Random[Packet.MAX_ADDRESS + 1];
+	this.scheduler = SortedEventQueue.DEFAULT_SCHEDULER;
 	this.parser = null;
 	this.reader = null;
         /*
          * Mar. 11, 2006
          * Hao Wang
          */
-        this.pktsDropped = 0;
-        this.pktsLost = 0;
+        this.pktsDropped = new AtomicInteger();
+        this.pktsLost = new AtomicInteger();
+	this.pktsMarked = new AtomicInteger();
     }
 
     /**
@@ -54,15 +70,18 @@ public abstract class Manager {
      */
     public void stop() {
 	System.err.println("Fishnet exiting after time: " + String.valueOf(this.now() - this.start) + " msec." +
-			   "\nNumber of packets sent: " + String.valueOf(this.pktsSent));
+			   "\nNumber of packets sent: " + String.valueOf(this.pktsSent.get()));
         /*
          * Mar. 12, 2006
          * Hao Wang
          *
          * Statistics about dropped and lost packets
          */
-        System.err.println("Number of packets dropped: " + String.valueOf(this.pktsDropped));
-        System.err.println("Number of packets lost: " + String.valueOf(this.pktsLost));
+        System.err.println("Number of packets dropped: " + String.valueOf(this.pktsDropped.get()));
+        System.err.println("Number of packets lost: " + String.valueOf(this.pktsLost.get()));
+	if(this.pktsMarked.get() > 0) {
+	    System.err.println("Number of packets marked: " + String.valueOf(this.pktsMarked.get()));
+	}
 	System.exit(0);
     }
 
@@ -85,17 +104,91 @@ public abstract class Manager {
      * @throws IllegalArgumentException If the arguments are invalid
      */
     public boolean sendPkt(int from, int to, byte[] pkt) throws IllegalArgumentException {
+	// the header is checked in place, the packet is not unpacked
 	if ( (pkt.length > Packet.MAX_PACKET_SIZE) ||
 	     !Packet.validAddress(to)                  ||
 	     !Packet.validAddress(from) ||
-		 !Packet.unpack(pkt).isValidToSend()) {
+	     !Packet.isValidToSend(pkt, 0, pkt.length)) {
 
 	    throw new IllegalArgumentException("Either pkt is not valid, address is not valid, or TTL is not valid");
 	}
-	this.pktsSent++;
-	return true;
+	return this.sendTrustedPkt(from, to, pkt);
     }
 
+    /**
+     * Send a packet to the specified node
+     * @param from The node that is sending the packet
+     * @param to Int spefying the destination node
+     * @param packet The packet to be sent. Its fields are checked, so it is only packed once
+     * @return True if the packet was sent, false otherwise
+     * @throws IllegalArgumentException If the arguments are invalid
+     */
+    public boolean sendPkt(int from, int to, Packet packet) throws IllegalArgumentException {
+	if ( !Packet.validAddress(to)   ||
+	     !Packet.validAddress(from) ||
+	     !packet.isValidToSend()) {
+
+	    throw new IllegalArgumentException("Either pkt is not valid, address is not valid, or TTL is not valid");
+	}
+	return this.sendTrustedPkt(from, to, packet.pack());
+    }
+
+    /**
+     * Send the pkt to the specified node without checking it. For callers that built pkt from checked fields,
+     * such as SegmentBuilder: from and to must be valid addresses and pkt must be valid to send
+     * @param from The node that is sending the packet
+     * @param to Int spefying the destination node
+     * @param pkt The packet to be sent, serialized to a byte array
+     * @return True if the packet was sent, false otherwise
+     */
+    public boolean sendTrustedPkt(int from, int to, byte[] pkt) {
+	this.pktsSent.incrementAndGet();
+	return this.transmit(from, to, pkt, pkt.length, false);
+    }
+
+    /**
+     * Send a packet held in an array from acquireBuffer to the specified node, without checking it, as sendTrustedPkt.
+     * The manager takes the array over as soon as it is called, and releases it once the packet has been delivered
+     * or dropped, so the caller must not use it afterwards. Until the call, a caller that fails must release it itself
+     * @param from The node that is sending the packet
+     * @param to Int spefying the destination node
+     * @param buf The array holding the packet, from acquireBuffer
+     * @param len The length of the packet
+     * @return True if the packet was sent, false otherwise
+     */
+    public boolean sendPooledPkt(int from, int to, byte[] buf, int len) {
+	this.pktsSent.incrementAndGet();
+	return this.transmit(from, to, buf, len, true);
+    }
+
+    /**
+     * Takes an array for a packed packet from the pool of the calling thread. See BufferPool
+     * @param size The number of bytes needed
+     * @return An array of at least size bytes
+     */
+    public byte[] acquireBuffer(int size) {
+	return this.partition().buffers.acquire(size);
+    }
+
+    /**
+     * Gives an array from acquireBuffer back to the pool. The caller must not use it afterwards
+     * @param buf The array
+     */
+    public void releaseBuffer(byte[] buf) {
+	this.partition().buffers.release(buf);
+    }
+
+    /**
+     * Puts a packet on the wire. Called once the packet has been checked and counted
+     * @param from The node that is sending the packet
+     * @param to Int spefying the destination node
+     * @param buf The array holding the packet
+     * @param len The length of the packet
+     * @param pooled True if buf came from acquireBuffer and must be released once the packet is delivered or dropped
+     * @return True if the packet was sent, false otherwise
+     */
+    protected abstract boolean transmit(int from, int to, byte[] buf, int len, boolean pooled);
+
     /*
      * Mar. 12, 2006
      * Hao Wang
@@ -107,14 +200,21 @@ public abstract class Manager {
      * Called upon when a packet is dropped due to buffer overflow
      */
     protected void packetDropped() {
-        this.pktsDropped++;
+        this.pktsDropped.incrementAndGet();
     }
 
     /**
      * Called upon when a packet is lost due to transmission error
      */
     protected void packetLost() {
-        this.pktsLost++;
+        this.pktsLost.incrementAndGet();
+    }
+
+    /**
+     * Called upon when a packet is marked congestion experienced instead of waiting for the buffer to overflow
+     */
+    protected void packetMarked() {
+	this.pktsMarked.incrementAndGet();
     }
 
     /**
@@ -122,8 +222,9 @@ public abstract class Manager {
      * @param nodeAddr Addr of node that is registering this timer
      * @param t The time when the timer should fire. In milliseconds
      * @param callback The callback to be invoked when the timer fires
+     * @return A handle for the timer, which can be passed to cancelTimer or rescheduleTimer. Null if the timer was not added
      */
-    public void addTimerAt(int nodeAddr, long t, Callback callback) {
+    public Event addTimerAt(int nodeAddr, long t, Callback callback) {
         /*
          * Mar. 27, 2006
          * Hao Wang
@@ -137,10 +238,15 @@ public abstract class Manager {
          * }
          */
         if (callback == null) {
-            return;
+            return null;
         }
 
-	this.sortedEvents.addEvent(new Event(t * 1000, callback));
+	// handles stay with the caller, so they are never handed back to the pool
+	Event timer = this.partition().obtainEvent(t * 1000, callback);
+	timer.owner = nodeAddr;
+	timer.recyclable = false;
+	this.enqueue(timer);
+	return timer;
     }
 
     /**
@@ -148,9 +254,40 @@ public abstract class Manager {
      * @param nodeAddr Addr of node that is registering this timer
      * @param deltaT The time interval after which the timer should fire. In milliseconds
      * @param callback The callback to be invoked when the timer fires
+     * @return A handle for the timer, which can be passed to cancelTimer or rescheduleTimer. Null if the timer was not added
+     */
+    public Event addTimer(int nodeAddr, long deltaT, Callback callback) {
+	return this.addTimerAt(nodeAddr, this.now() + deltaT, callback);
+    }
+
+    /**
+     * Cancels a timer. Does nothing if the timer has already fired or been cancelled
+     * @param timer The handle returned by addTimer
+     * @return True if the timer was pending
      */
-    public void addTimer(int nodeAddr, long deltaT, Callback callback) {
-	this.addTimerAt(nodeAddr, this.now() + deltaT, callback);
+    public boolean cancelTimer(Event timer) {
+	return timer != null && this.partitionOf(timer.owner).events.removeEvent(timer);
+    }
+
+    /**
+     * Moves a timer to fire at time t, keeping its callback. Works whether or not the timer is still pending,
+     * so a handle can be reused for as long as its owner needs it
+     * @param timer The handle returned by addTimer
+     * @param t The time when the timer should fire. In milliseconds
+     */
+    public void rescheduleTimerAt(Event timer, long t) {
+	this.partitionOf(timer.owner).events.removeEvent(timer);
+	timer.setTimeToOccur(t * 1000);
+	this.enqueue(timer);
+    }
+
+    /**
+     * Moves a timer to fire deltaT milliseconds in the future, keeping its callback
+     * @param timer The handle returned by addTimer
+     * @param deltaT The time interval after which the timer should fire. In milliseconds
+     */
+    public void rescheduleTimer(Event timer, long deltaT) {
+	this.rescheduleTimerAt(timer, this.now() + deltaT);
     }
 
     /**
@@ -159,6 +296,12 @@ public abstract class Manager {
      */
     public abstract long now();
 
+    /**
+     * Retrieve current time in microseconds, for measurements finer than timers can be set
+     * @return Current time in microseconds
+     */
+    public abstract long nowMicros();
+
     /**
      * Sends the msg to the the specified node
      * @param nodeAddr Address of the node to whom the message should be sent
@@ -176,6 +319,47 @@ public abstract class Manager {
 	// Defined here since is not valid for emulator
     }
 
+    /**
+     * Sets the scheduler used to order pending events. Events already pending are kept
+     * @param name The name of the scheduler. See SortedEventQueue
+     * @throws IllegalArgumentException If the scheduler name is unknown
+     */
+    public void setEventScheduler(String name) throws IllegalArgumentException {
+	this.sortedEvents.setScheduler(SortedEventQueue.createScheduler(name));
+	this.scheduler = name;
+    }
+
+    /**
+     * @return The name of the scheduler used to order pending events
+     */
+    public String getEventScheduler() {
+	return this.scheduler;
+    }
+
+    /**
+     * Seeds the random numbers used by the run, so that it can be repeated. See getRandom
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+	this.seed = seed;
+	this.randoms = new Random[Packet.MAX_ADDRESS + 1];
+    }
+
+    /**
+     * Returns the random number generator of a node. Nodes should draw from it rather than from their own generators,
+     * so that a run started with setSeed can be repeated exactly
+     * @param nodeAddr Addr of the node
+     * @return The node's generator
+     */
+    public Random getRandom(int nodeAddr) {
+	Random random = this.randoms[nodeAddr];
+	if (random == null) {
+	    random = (this.seed == null) ? new Random() : new Random(this.seed + nodeAddr * 0x9E3779B97F4A7C15L);
+	    this.randoms[nodeAddr] = random;
+	}
+	return random;
+    }
+
     protected void setParser(CommandsParser parser) {
 	this.parser = parser;
     }
@@ -208,14 +392,97 @@ public abstract class Manager {
 	return deferTill;
     }
 
+    /**
+     * Adds an event to be run at the given time
+     * @param timeToOccur The time when the event should run, in microseconds. Ignored if negative
+     * @param cb The callback to be invoked
+     */
+    protected void addEvent(long timeToOccur, Callback cb) {
+	this.addEvent(-1, timeToOccur, cb);
+    }
+
+    /**
+     * Adds an event to be run at the given time on behalf of a node
+     * @param nodeAddr Addr of the node whose state the event touches, -1 for the manager's own events
+     * @param timeToOccur The time when the event should run, in microseconds. Ignored if negative
+     * @param cb The callback to be invoked
+     */
+    protected void addEvent(int nodeAddr, long timeToOccur, Callback cb) {
+	if(timeToOccur < 0) {
+	    return;
+	}
+	Event event = this.partition().obtainEvent(timeToOccur, cb);
+	event.owner = nodeAddr;
+	event.recyclable = true;
+	this.enqueue(event);
+    }
+
+    /**
+     * Queues an event in the partition of its owner. Events are stamped with the node whose event created them
+     * and a count of the events that node has created, rather than a global count, so that the order of
+     * simultaneous events does not depend on how the nodes are split between threads. This holds for sequential
+     * runs too, so that they match parallel ones: simultaneous events run by creating node, not in global FIFO
+     * order (see SortedEventQueue)
+     * @param event The event to queue
+     */
+    protected void enqueue(Event event) {
+	Partition current = this.partition();
+	int creator = current.running + 1;
+	event.seq = ((long)creator << 40) | this.created[creator]++;
+	Partition target = this.partitionOf(event.owner);
+	if (target != current && current.inWindow) {
+	    current.outbox.add(event);
+	} else {
+	    target.events.insertEvent(event);
+	}
+    }
+
+    /**
+     * Returns the partition whose events the calling thread is running
+     * @return The partition
+     */
+    protected Partition partition() {
+	return this.main;
+    }
+
+    /**
+     * Returns the partition holding a node's events
+     * @param nodeAddr Addr of the node, -1 for the manager's own events
+     * @return The partition
+     */
+    protected Partition partitionOf(int nodeAddr) {
+	return this.main;
+    }
+
+    /**
+     * Runs an event that has been removed from the queue, then recycles it if nobody else holds on to it
+     * @param event The event to run
+     * @throws Exception Whatever the callback throws
+     */
+    protected void runEvent(Event event) throws Exception {
+	Partition current = this.partition();
+	int running = current.running;
+	current.running = event.owner;
+	try {
+	    event.callback().invoke();
+	} finally {
+	    current.running = running;
+	    if (event.recyclable && !event.queued) {
+		current.recycleEvent(event);
+	    }
+	}
+    }
+
+    /**
+     * Adds an event that invokes a method by name. Kept for compatibility, prefer addEvent(long, Callback)
+     */
     protected void addEvent(long timeToOccur, String methodName, Object obj, String[] paramTypes, Object[] params) {
 	if(timeToOccur < 0) {
 	    return;
 	}
 	try {
 	    Method method = Callback.getMethod(methodName, obj, paramTypes);
-	    Callback cb = new Callback(method, obj, params);
-	    this.sortedEvents.addEvent(new Event(timeToOccur, cb));
+	    this.addEvent(timeToOccur, new Callback(method, obj, params));
 	}catch(Exception e) {
 	    System.err.println("Failed to add event in Manager. Method Name: " + methodName + " Object: " + obj +
 			       "\nException: " + e);
@@ -1,6 +1,4 @@
-import java.math.BigInteger;
-import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * <pre>
@@ -17,6 +15,19 @@ public class Packet {
 	public static final int MAX_PAYLOAD_SIZE = MAX_PACKET_SIZE - HEADER_SIZE; // bytes
 	public static final int MAX_TTL = 15; // max hop count
 
+	// Offsets of the header fields in the packed packet
+	public static final int DEST_OFFSET = 0;
+	public static final int SRC_OFFSET = 1;
+	public static final int TTL_OFFSET = 2;
+	public static final int PROTOCOL_OFFSET = 3;
+	public static final int LENGTH_OFFSET = 4;
+	public static final int SEQ_OFFSET = 5; // 4 bytes, most significant first
+
+	// ECN flags, in the bits of the TTL byte that a TTL up to MAX_TTL leaves free
+	public static final int ECT_FLAG = 0x40; // ECN-capable transport: a congested queue may mark it instead of dropping it
+	public static final int CE_FLAG = 0x80; // congestion experienced: marked by a queue on the way
+	public static final int TTL_MASK = 0x3F;
+
 	private int dest;
 	private int src;
 	private int ttl;
@@ -37,7 +48,7 @@ public class Packet {
 	 */
 	public Packet(int dest, int src, int ttl, int protocol, int seq, byte[] payload) throws IllegalArgumentException {
 
-		if (!this.isValid(dest, src, ttl, protocol, payload.length + Packet.HEADER_SIZE)) {
+		if (!isValid(dest, src, ttl, protocol, payload.length + Packet.HEADER_SIZE)) {
 			throw new IllegalArgumentException("Arguments passed to constructor of Packet are invalid");
 		}
 
@@ -120,25 +131,102 @@ public class Packet {
 	 *         some reason
 	 */
 	public byte[] pack() {
+		byte[] packed = new byte[HEADER_SIZE + this.payload.length];
+		this.pack(packed, 0);
+		return packed;
+	}
 
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-		byteStream.write(this.dest);
-		byteStream.write(this.src);
-		byteStream.write(this.ttl);
-		byteStream.write(this.protocol);
-		byteStream.write(this.payload.length + Packet.HEADER_SIZE);
-
-		byte[] seqByteArray = (BigInteger.valueOf(this.seq)).toByteArray();
-		int paddingLength = 4 - seqByteArray.length;
-		for (int i = 0; i < paddingLength; i++) {
-			byteStream.write(0);
-		}
+	/**
+	 * Packs the Packet into a caller-supplied array, in the format of pack()
+	 * 
+	 * @param buf The array to pack into
+	 * @param off Where the packet should start
+	 * @return The number of bytes written
+	 * @throws IndexOutOfBoundsException If the packet does not fit
+	 */
+	public int pack(byte[] buf, int off) {
+		Packet.writeHeader(buf, off, this.dest, this.src, this.ttl, this.protocol, this.seq, this.payload.length);
+		System.arraycopy(this.payload, 0, buf, off + HEADER_SIZE, this.payload.length);
+		return HEADER_SIZE + this.payload.length;
+	}
+
+	/**
+	 * Packs the Packet into a buffer at its position, in the format of pack(), and
+	 * advances the position past it
+	 * 
+	 * @param buf The buffer to pack into
+	 * @throws java.nio.BufferOverflowException If the packet does not fit
+	 */
+	public void pack(ByteBuffer buf) {
+		Packet.writeHeader(buf, this.dest, this.src, this.ttl, this.protocol, this.seq, this.payload.length);
+		buf.put(this.payload);
+	}
 
-		byteStream.write(seqByteArray, 0, Math.min(seqByteArray.length, 4));
+	/**
+	 * Writes a packet header into a caller-supplied array, leaving the payload
+	 * that follows it alone
+	 * 
+	 * @param buf           The array to write into
+	 * @param off           Where the packet starts
+	 * @param dest          The destination fishnet address
+	 * @param src           The source fishnet address
+	 * @param ttl           The time-to-live value
+	 * @param protocol      What type of packet this is
+	 * @param seq           The sequence number of the packet
+	 * @param payloadLength The number of payload bytes that follow the header
+	 * @throws IndexOutOfBoundsException If the header does not fit
+	 */
+	public static void writeHeader(byte[] buf, int off, int dest, int src, int ttl, int protocol, int seq,
+			int payloadLength) {
+		buf[off + DEST_OFFSET] = (byte) dest;
+		buf[off + SRC_OFFSET] = (byte) src;
+		buf[off + TTL_OFFSET] = (byte) ttl;
+		buf[off + PROTOCOL_OFFSET] = (byte) protocol;
+		buf[off + LENGTH_OFFSET] = (byte) (HEADER_SIZE + payloadLength);
+		Utility.writeInt(buf, off + SEQ_OFFSET, seq);
+	}
+
+	/**
+	 * Writes a packet header into a buffer at its position, and advances the
+	 * position past it
+	 * 
+	 * @see #writeHeader(byte[], int, int, int, int, int, int, int)
+	 */
+	public static void writeHeader(ByteBuffer buf, int dest, int src, int ttl, int protocol, int seq,
+			int payloadLength) {
+		buf.put((byte) dest);
+		buf.put((byte) src);
+		buf.put((byte) ttl);
+		buf.put((byte) protocol);
+		buf.put((byte) (HEADER_SIZE + payloadLength));
+		buf.putInt(seq);
+	}
 
-		byteStream.write(this.payload, 0, this.payload.length);
+	/**
+	 * Marks a packed packet as ECN-capable, so that a congested link marks it
+	 * rather than letting it wait. Packets are not ECN-capable unless marked so
+	 * 
+	 * @param buf The array holding the packet
+	 * @param off Where the packet starts
+	 */
+	public static void setEcnCapable(byte[] buf, int off) {
+		buf[off + TTL_OFFSET] |= ECT_FLAG;
+	}
 
-		return byteStream.toByteArray();
+	/**
+	 * Marks a packed packet as having experienced congestion, if it is
+	 * ECN-capable. The flags do not survive unpacking
+	 * 
+	 * @param buf The array holding the packet
+	 * @param off Where the packet starts
+	 * @return True if the packet was marked
+	 */
+	public static boolean markCongestionExperienced(byte[] buf, int off) {
+		if ((buf[off + TTL_OFFSET] & ECT_FLAG) == 0) {
+			return false;
+		}
+		buf[off + TTL_OFFSET] |= (byte) CE_FLAG;
+		return true;
 	}
 
 	/**
@@ -150,31 +238,14 @@ public class Packet {
 	 *         corrupted
 	 */
 	public static Packet unpack(byte[] packedPacket) {
-
-		ByteArrayInputStream byteStream = new ByteArrayInputStream(packedPacket);
-
-		int dest = byteStream.read();
-		int src = byteStream.read();
-		int ttl = byteStream.read();
-		int protocol = byteStream.read();
-		int packetLength = byteStream.read();
-
-		byte[] seqByteArray = new byte[4];
-		if (byteStream.read(seqByteArray, 0, 4) != 4) {
-			return null;
-		}
-
-		int seq = (new BigInteger(seqByteArray)).intValue();
-
-		byte[] payload = new byte[byteStream.available()];
-		byteStream.read(payload, 0, payload.length);
-
-		if ((9 + payload.length) != packetLength) {
+		PacketView view = new PacketView().wrap(packedPacket, 0, packedPacket.length);
+		if (!view.isWellFormed()) {
 			return null;
 		}
 
 		try {
-			return new Packet(dest, src, ttl, protocol, seq, payload);
+			return new Packet(view.getDest(), view.getSrc(), view.getTTL(), view.getProtocol(), view.getSeq(),
+					view.copyPayload());
 		} catch (IllegalArgumentException e) {
 			// will return null
 		}
@@ -197,15 +268,34 @@ public class Packet {
 	 * @return True if packet is valid, else false
 	 */
 	public boolean isValid() {
-		return this.isValid(this.dest, this.src, this.ttl, this.protocol, this.payload.length + HEADER_SIZE);
+		return isValid(this.dest, this.src, this.ttl, this.protocol, this.payload.length + HEADER_SIZE);
 	}
 
-	private boolean isValid(int dest, int src, int ttl, int protocol, int size) {
+	static boolean isValid(int dest, int src, int ttl, int protocol, int size) {
 		return (dest <= MAX_ADDRESS && dest >= 0 && Packet.validAddress(src) && Protocol.isProtocolValid(protocol)
 				&& ttl <= MAX_TTL && ttl >= 0 && size <= MAX_PACKET_SIZE);
 
 	}
 
+	/**
+	 * Tests if a packed packet is valid to send, reading its header in place
+	 * rather than unpacking it
+	 * 
+	 * @param packed The array holding the packet
+	 * @param off    Where the packet starts
+	 * @param len    The number of bytes in the packet
+	 * @return True if the header is whole, carries the right length, and has
+	 *         fields that are valid to send
+	 */
+	public static boolean isValidToSend(byte[] packed, int off, int len) {
+		if (len < HEADER_SIZE || (packed[off + LENGTH_OFFSET] & 0xFF) != len) {
+			return false;
+		}
+		int ttl = packed[off + TTL_OFFSET] & TTL_MASK;
+		return ttl > 0 && Packet.isValid(packed[off + DEST_OFFSET] & 0xFF, packed[off + SRC_OFFSET] & 0xFF, ttl,
+				packed[off + PROTOCOL_OFFSET] & 0xFF, len);
+	}
+
 	/**
 	 * Tests if this Packet is valid to send A valid packet may have TTL = 0, but a
 	 * "valid to send" packet cannot have TTL = 0
@@ -0,0 +1,169 @@
+import java.nio.ByteBuffer;
+
+/**
+ * <pre>
+ *
+ * A read-only view of a packed Packet. The header fields are read from the
+ * wire format when asked for and the payload is never copied, so one view can
+ * be reused for every packet passing through a node: wrap it around the
+ * packet's bytes, read what is needed, and wrap it around the next one.
+ * </pre>
+ */
+public class PacketView {
+
+	private byte[] buf;
+	private int off;
+	private int len;
+
+	/**
+	 * Points the view at a packed packet
+	 *
+	 * @param buf The array holding the packet
+	 * @param off Where the packet starts
+	 * @param len The number of bytes received, which should be the packet length
+	 * @return This view
+	 */
+	public PacketView wrap(byte[] buf, int off, int len) {
+		this.buf = buf;
+		this.off = off;
+		this.len = len;
+		return this;
+	}
+
+	/**
+	 * Points the view at the packed packet between a buffer's position and limit
+	 *
+	 * @param buf The buffer holding the packet. Must be backed by an array
+	 * @return This view
+	 */
+	public PacketView wrap(ByteBuffer buf) {
+		return this.wrap(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+	}
+
+	/**
+	 * Tests if the bytes can be read as a packet: there is a whole header, and
+	 * the length it carries matches the number of bytes
+	 *
+	 * @return True if the fields can be read
+	 */
+	public boolean isWellFormed() {
+		return this.len >= Packet.HEADER_SIZE && this.getLength() == this.len;
+	}
+
+	/**
+	 * Tests if the packet is well formed and its fields are valid. Same as
+	 * Packet.isValid, without unpacking
+	 *
+	 * @return True if packet is valid, else false
+	 */
+	public boolean isValid() {
+		return this.isWellFormed() && Packet.isValid(this.getDest(), this.getSrc(), this.getTTL(),
+				this.getProtocol(), this.len);
+	}
+
+	/**
+	 * Tests if the packet is valid and may be sent. Same as Packet.isValidToSend,
+	 * without unpacking
+	 *
+	 * @return True if the packet is valid to send, else false
+	 */
+	public boolean isValidToSend() {
+		return Packet.isValidToSend(this.buf, this.off, this.len);
+	}
+
+	/**
+	 * @return The address of the destination node
+	 */
+	public int getDest() {
+		return this.buf[this.off + Packet.DEST_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The address of the src node
+	 */
+	public int getSrc() {
+		return this.buf[this.off + Packet.SRC_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The TTL of the packet
+	 */
+	public int getTTL() {
+		return this.buf[this.off + Packet.TTL_OFFSET] & Packet.TTL_MASK;
+	}
+
+	/**
+	 * @return True if the packet is ECN-capable
+	 */
+	public boolean isEcnCapable() {
+		return (this.buf[this.off + Packet.TTL_OFFSET] & Packet.ECT_FLAG) != 0;
+	}
+
+	/**
+	 * @return True if a queue on the way marked the packet as having experienced congestion
+	 */
+	public boolean isCongestionExperienced() {
+		return (this.buf[this.off + Packet.TTL_OFFSET] & Packet.CE_FLAG) != 0;
+	}
+
+	/**
+	 * @return The protocol used for this packet
+	 */
+	public int getProtocol() {
+		return this.buf[this.off + Packet.PROTOCOL_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The length of the packet, header included, as carried in the header
+	 */
+	public int getLength() {
+		return this.buf[this.off + Packet.LENGTH_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The sequence number of this packet
+	 */
+	public int getSeq() {
+		return Utility.readInt(this.buf, this.off + Packet.SEQ_OFFSET);
+	}
+
+	/**
+	 * @return The array holding the packet
+	 */
+	public byte[] getBuffer() {
+		return this.buf;
+	}
+
+	/**
+	 * @return Where the payload starts in the array
+	 */
+	public int getPayloadOffset() {
+		return this.off + Packet.HEADER_SIZE;
+	}
+
+	/**
+	 * @return The number of payload bytes
+	 */
+	public int getPayloadLength() {
+		return this.len - Packet.HEADER_SIZE;
+	}
+
+	/**
+	 * @return A copy of the payload
+	 */
+	public byte[] copyPayload() {
+		byte[] payload = new byte[this.getPayloadLength()];
+		System.arraycopy(this.buf, this.getPayloadOffset(), payload, 0, payload.length);
+		return payload;
+	}
+
+	/**
+	 * Points a transport view at the payload of this packet
+	 *
+	 * @param view The view to reuse
+	 * @return The view
+	 */
+	public TransportView getTransport(TransportView view) {
+		return view.wrap(this.buf, this.getPayloadOffset(), this.getPayloadLength());
+	}
+}
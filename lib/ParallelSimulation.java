@@ -0,0 +1,358 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * <pre>
+ * Runs a batch simulation on several threads, using conservative synchronization.
+ *
+ * The nodes are split into contiguous blocks of addresses, one Partition per worker. The manager's own events
+ * (parsing the topology and fishnet files) stay in the Simulator's partition and are run by the coordinating
+ * thread while the workers wait. Nodes only affect each other by sending packets, and no packet can cross an
+ * edge faster than the lookahead (see Topology.minTransitTime). So if T is the time of the earliest pending event,
+ * every event before T + lookahead can be run without waiting for the other partitions: the workers run one such
+ * window each, meet at a barrier, and the packets sent across partitions are then handed over.
+ * When the lookahead is zero, or a manager event is due, single events are run in order instead.
+ *
+ * The output is the same as a sequential run with the same seed:
+ *   - events are ordered by the node that created them (see Manager.enqueue), not by a global count
+ *   - each edge direction and each node has its own seeded random numbers
+ *   - what the events print during a window is buffered per partition, and written out in sequential order
+ *     when the window closes
+ * </pre>
+ */
+public class ParallelSimulation {
+
+    private Simulator simulator;
+    private Partition manager;      // the Simulator's own partition, holding the manager's events
+    private Partition[] partitions; // one per worker, partitions[0] is run by the coordinating thread
+    private int blockSize;          // number of consecutive node addresses per partition
+    private ThreadLocal<Partition> current;
+    private CyclicBarrier windowStart;
+    private CyclicBarrier windowEnd;
+    private Thread[] workers;
+    private volatile boolean done;
+    private long end;               // events before this time, in microseconds, belong to the open window
+    private long lookahead;         // in microseconds
+    private long now;               // latest simulated time reached by any partition, in microseconds
+    private long eventsRun;
+    // Position in the sequential order of the last event run
+    private long lastTime;
+    private long lastSeq;
+    private int lastSub;
+    private PrintStream out;
+    private PrintStream err;
+
+    /**
+     * Splits the nodes of a simulation between workers. Events already queued are moved to their partitions
+     * @param simulator The simulator, whose partition keeps the manager's events
+     * @param manager The simulator's partition
+     * @param numNodes The number of nodes
+     * @param numWorkers The number of threads to use. At most one per node
+     * @param scheduler The name of the event scheduler used by the partitions. See SortedEventQueue
+     */
+    public ParallelSimulation(Simulator simulator, Partition manager, int numNodes, int numWorkers, String scheduler) {
+	this.simulator = simulator;
+	this.manager = manager;
+	numWorkers = Math.max(1, Math.min(numWorkers, numNodes));
+	this.blockSize = (numNodes + numWorkers - 1) / numWorkers;
+	this.partitions = new Partition[(numNodes + this.blockSize - 1) / this.blockSize];
+	for (int i = 0; i < this.partitions.length; i++) {
+	    this.partitions[i] = new Partition();
+	    this.partitions[i].events.setScheduler(SortedEventQueue.createScheduler(scheduler));
+	    this.partitions[i].now = manager.now;
+	}
+	this.current = ThreadLocal.withInitial(() -> this.manager);
+
+	// Hand the nodes' events over to their partitions
+	ArrayList<Event> queued = new ArrayList<Event>();
+	Event event;
+	while ((event = manager.events.removeNextEvent()) != null) {
+	    queued.add(event);
+	}
+	for (Event e : queued) {
+	    this.partitionOf(e.owner).events.insertEvent(e);
+	}
+
+	this.now = manager.now;
+	this.eventsRun = 0;
+	this.lastTime = -1;
+	this.lastSeq = -1;
+	this.lastSub = 0;
+    }
+
+    /**
+     * Returns the partition whose events the calling thread is running
+     * @return The partition
+     */
+    public Partition current() {
+	return this.current.get();
+    }
+
+    /**
+     * Returns the partition holding a node's events
+     * @param nodeAddr Addr of the node, -1 for the manager's own events
+     * @return The partition
+     */
+    public Partition partitionOf(int nodeAddr) {
+	if (nodeAddr < 0) {
+	    return this.manager;
+	}
+	return this.partitions[nodeAddr / this.blockSize];
+    }
+
+    /**
+     * @return The number of events run so far
+     */
+    public long eventsRun() {
+	return this.eventsRun;
+    }
+
+    /**
+     * Runs events until none are left or the horizon is reached
+     * @param horizon Simulated time to stop at, in microseconds. -1 to run until no events are left
+     * @return The number of events run
+     */
+    public long run(long horizon) {
+	this.out = System.out;
+	this.err = System.err;
+	System.setOut(new PrintStream(new Capture(this.out, false), true));
+	System.setErr(new PrintStream(new Capture(this.err, true), true));
+	this.startWorkers();
+	this.lookahead = Topology.GetInstance().minTransitTime(Packet.HEADER_SIZE);
+
+	try {
+	    while (true) {
+		Partition first = null;
+		Event next = null;
+		for (int i = -1; i < this.partitions.length; i++) {
+		    Partition p = (i < 0) ? this.manager : this.partitions[i];
+		    Event e = p.events.getNextEvent();
+		    if (e != null && (next == null || e.before(next))) {
+			next = e;
+			first = p;
+		    }
+		}
+		if (next == null) {
+		    break;
+		}
+		long time = next.timeToOccur();
+		if (horizon >= 0 && time > horizon) {
+		    this.now = horizon;
+		    break;
+		}
+
+		Event managerEvent = this.manager.events.getNextEvent();
+		if (this.lookahead <= 0 || (managerEvent != null && managerEvent.timeToOccur() <= time)) {
+		    this.step(first);
+		    continue;
+		}
+		long end = (this.lookahead > Long.MAX_VALUE - time) ? Long.MAX_VALUE : time + this.lookahead;
+		if (managerEvent != null) {
+		    end = Math.min(end, managerEvent.timeToOccur());
+		}
+		if (horizon >= 0) {
+		    end = Math.min(end, horizon + 1);
+		}
+		this.runWindow(end);
+	    }
+	} finally {
+	    this.stopWorkers();
+	    System.out.flush();
+	    System.err.flush();
+	    System.setOut(this.out);
+	    System.setErr(this.err);
+	}
+	this.manager.now = this.now;
+	return this.eventsRun;
+    }
+
+    /******************** Private Functions ********************/
+
+    // Runs the next event of a partition on this thread, while the workers wait
+    private void step(Partition p) {
+	Event event = p.events.removeNextEvent();
+	long time = event.timeToOccur();
+	if (time > this.lastTime || (time == this.lastTime && event.seq > this.lastSeq)) {
+	    this.lastTime = time;
+	    this.lastSeq = event.seq;
+	    this.lastSub = 0;
+	} else {
+	    this.lastSub++;
+	}
+	p.now = Math.max(this.now, time);
+	this.now = p.now;
+	this.eventsRun++;
+	this.current.set(p);
+	try {
+	    this.runEvent(p, event);
+	} finally {
+	    this.current.set(this.manager);
+	}
+	if (p == this.manager) {
+	    // the topology may have changed
+	    this.lookahead = Topology.GetInstance().minTransitTime(Packet.HEADER_SIZE);
+	}
+    }
+
+    private void runWindow(long end) {
+	this.end = end;
+	for (Partition p : this.partitions) {
+	    p.now = Math.max(p.now, this.now);
+	    p.records = 0;
+	    p.out.reset();
+	    p.err.reset();
+	    p.inWindow = true;
+	}
+
+	this.await(this.windowStart);
+	this.current.set(this.partitions[0]);
+	try {
+	    this.runPartition(this.partitions[0]);
+	} finally {
+	    this.current.set(this.manager);
+	}
+	this.await(this.windowEnd);
+
+	for (Partition p : this.partitions) {
+	    p.inWindow = false;
+	    this.now = Math.max(this.now, p.now);
+	    this.eventsRun += p.records;
+	}
+	this.writeOutput();
+	for (Partition p : this.partitions) {
+	    for (Event event : p.outbox) {
+		this.partitionOf(event.owner).events.insertEvent(event);
+	    }
+	    p.outbox.clear();
+	}
+    }
+
+    // Runs the events of a partition that belong to the open window
+    private void runPartition(Partition p) {
+	Event event;
+	while ((event = p.events.getNextEvent()) != null && event.timeToOccur() < this.end) {
+	    p.events.removeNextEvent();
+	    p.now = Math.max(p.now, event.timeToOccur());
+	    p.record(event, this.lastTime, this.lastSeq, this.lastSub);
+	    this.runEvent(p, event);
+	    p.endRecord();
+	}
+    }
+
+    private void runEvent(Partition p, Event event) {
+	try {
+	    this.simulator.runEvent(event);
+	}catch(Exception e) {
+	    System.err.println("Exception while trying to invoke method in Simulator. Error: " + e);
+	    e.printStackTrace();
+	}
+    }
+
+    // Writes what the partitions printed during the window, in the order a sequential run would have printed it
+    private void writeOutput() {
+	int[] next = new int[this.partitions.length];
+	while (true) {
+	    int first = -1;
+	    for (int i = 0; i < this.partitions.length; i++) {
+		Partition p = this.partitions[i];
+		if (next[i] < p.records &&
+		    (first < 0 || p.recordBefore(next[i], this.partitions[first], next[first]))) {
+		    first = i;
+		}
+	    }
+	    if (first < 0) {
+		break;
+	    }
+	    Partition p = this.partitions[first];
+	    int r = next[first]++;
+	    int outStart = (r == 0) ? 0 : p.recOut[r - 1];
+	    int errStart = (r == 0) ? 0 : p.recErr[r - 1];
+	    this.out.write(p.out.buf, outStart, p.recOut[r] - outStart);
+	    this.err.write(p.err.buf, errStart, p.recErr[r] - errStart);
+	    this.lastTime = p.recTime[r];
+	    this.lastSeq = p.recSeq[r];
+	    this.lastSub = p.recSub[r];
+	}
+	this.out.flush();
+	this.err.flush();
+    }
+
+    private void startWorkers() {
+	this.done = false;
+	this.windowStart = new CyclicBarrier(this.partitions.length);
+	this.windowEnd = new CyclicBarrier(this.partitions.length);
+	this.workers = new Thread[this.partitions.length - 1];
+	for (int i = 0; i < this.workers.length; i++) {
+	    Partition p = this.partitions[i + 1];
+	    this.workers[i] = new Thread(() -> {
+		this.current.set(p);
+		while (true) {
+		    this.await(this.windowStart);
+		    if (this.done) {
+			return;
+		    }
+		    this.runPartition(p);
+		    this.await(this.windowEnd);
+		}
+	    }, "fishnet-worker-" + (i + 1));
+	    this.workers[i].setDaemon(true);
+	    this.workers[i].start();
+	}
+    }
+
+    private void stopWorkers() {
+	this.done = true;
+	this.await(this.windowStart);
+	for (Thread worker : this.workers) {
+	    try {
+		worker.join();
+	    }catch(InterruptedException e) {
+		// Do nothing. The workers are daemons
+	    }
+	}
+    }
+
+    private void await(CyclicBarrier barrier) {
+	try {
+	    barrier.await();
+	}catch(InterruptedException | BrokenBarrierException e) {
+	    throw new IllegalStateException("Parallel simulation lost a worker: " + e);
+	}
+    }
+
+    /**
+     * Sends what is printed by an event run inside a window to its partition's buffer, and everything else
+     * straight to the real stream
+     */
+    private class Capture extends OutputStream {
+	private PrintStream stream;
+	private boolean isErr;
+
+	Capture(PrintStream stream, boolean isErr) {
+	    this.stream = stream;
+	    this.isErr = isErr;
+	}
+
+	public void write(int b) {
+	    this.write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	public void write(byte[] b, int off, int len) {
+	    Partition p = current.get();
+	    if (p.inWindow) {
+		(this.isErr ? p.err : p.out).write(b, off, len);
+	    } else {
+		this.stream.write(b, off, len);
+	    }
+	}
+
+	public void flush() {
+	    if (!current.get().inWindow) {
+		this.stream.flush();
+	    }
+	}
+    }
+}
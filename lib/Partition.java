@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * A set of nodes whose events are run by a single thread.
+ * A sequential run has one partition holding every node. A parallel simulation splits the nodes
+ * into contiguous blocks of addresses, one partition per worker, plus one for the manager's own events
+ * such as parsing the topology and fishnet files.
+ * </pre>
+ */
+public class Partition {
+
+    final SortedEventQueue events;
+    // Simulated time of this partition, in microseconds. Only kept by the Simulator
+    long now;
+    // Address of the node whose event is being run, -1 for the manager's own events
+    int running;
+    // Pool of events that have run, linked through Event.next
+    private Event free;
+    // Pool of arrays for packed packets
+    final BufferPool buffers;
+    // Pool of packet deliveries that have run. Only kept by the Simulator
+    Simulator.Delivery deliveries;
+
+    // The rest is only used while a parallel window is open, see ParallelSimulation
+    boolean inWindow;
+    // Events created for nodes of other partitions, handed over when the window closes
+    final ArrayList<Event> outbox;
+    // Output written by the events run in the current window
+    final ByteSink out;
+    final ByteSink err;
+    // One record per event run in the current window: its position in the sequential order and where its output ends
+    long[] recTime;
+    long[] recSeq;
+    int[] recSub;
+    int[] recOut;
+    int[] recErr;
+    int records;
+
+    public Partition() {
+	this.events = new SortedEventQueue();
+	this.now = 0;
+	this.running = -1;
+	this.free = null;
+	this.buffers = new BufferPool();
+	this.deliveries = null;
+	this.inWindow = false;
+	this.outbox = new ArrayList<Event>();
+	this.out = new ByteSink();
+	this.err = new ByteSink();
+	this.recTime = new long[64];
+	this.recSeq = new long[64];
+	this.recSub = new int[64];
+	this.recOut = new int[64];
+	this.recErr = new int[64];
+	this.records = 0;
+    }
+
+    /**
+     * Takes an event from the pool, or creates one if the pool is empty
+     * @param timeToOccur The time at which the event should take place, in microseconds
+     * @param cb The callback to be invoked
+     * @return The event
+     */
+    Event obtainEvent(long timeToOccur, Callback cb) {
+	Event event = this.free;
+	if (event == null) {
+	    return new Event(timeToOccur, cb);
+	}
+	this.free = event.next;
+	event.set(timeToOccur, cb);
+	return event;
+    }
+
+    /**
+     * Returns an event that has run to the pool
+     * @param event The event. Must not be queued or referenced by anybody else
+     */
+    void recycleEvent(Event event) {
+	event.set(0, null);
+	event.next = this.free;
+	this.free = event;
+    }
+
+    /**
+     * Records that an event is about to run inside a window, so that its output can later be put back in sequential order.
+     * An event that sorts before the previous one can only have been created by the events since that one, and a
+     * sequential run would have run it right after them, so it is recorded just behind the previous record
+     * @param event The event about to run
+     * @param lastTime Time of the last event recorded before the window opened
+     * @param lastSeq Seq of the last event recorded before the window opened
+     * @param lastSub Sub-position of the last event recorded before the window opened
+     */
+    void record(Event event, long lastTime, long lastSeq, int lastSub) {
+	if (this.records == this.recTime.length) {
+	    int n = this.records * 2;
+	    this.recTime = Arrays.copyOf(this.recTime, n);
+	    this.recSeq = Arrays.copyOf(this.recSeq, n);
+	    this.recSub = Arrays.copyOf(this.recSub, n);
+	    this.recOut = Arrays.copyOf(this.recOut, n);
+	    this.recErr = Arrays.copyOf(this.recErr, n);
+	}
+	if (this.records > 0) {
+	    int last = this.records - 1;
+	    lastTime = this.recTime[last];
+	    lastSeq = this.recSeq[last];
+	    lastSub = this.recSub[last];
+	}
+	int i = this.records++;
+	long time = event.timeToOccur();
+	if (time > lastTime || (time == lastTime && event.seq > lastSeq)) {
+	    this.recTime[i] = time;
+	    this.recSeq[i] = event.seq;
+	    this.recSub[i] = 0;
+	} else {
+	    this.recTime[i] = lastTime;
+	    this.recSeq[i] = lastSeq;
+	    this.recSub[i] = lastSub + 1;
+	}
+    }
+
+    /**
+     * Marks the end of the output of the event recorded last
+     */
+    void endRecord() {
+	this.recOut[this.records - 1] = this.out.size();
+	this.recErr[this.records - 1] = this.err.size();
+    }
+
+    /**
+     * @return True if record i of this partition comes before record j of the other one
+     */
+    boolean recordBefore(int i, Partition other, int j) {
+	if (this.recTime[i] != other.recTime[j]) {
+	    return this.recTime[i] < other.recTime[j];
+	}
+	if (this.recSeq[i] != other.recSeq[j]) {
+	    return this.recSeq[i] < other.recSeq[j];
+	}
+	return this.recSub[i] < other.recSub[j];
+    }
+
+    /**
+     * A growable byte array
+     */
+    static class ByteSink {
+	byte[] buf = new byte[1024];
+	int len = 0;
+
+	void write(byte[] b, int off, int n) {
+	    if (this.len + n > this.buf.length) {
+		this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+	    }
+	    System.arraycopy(b, off, this.buf, this.len, n);
+	    this.len += n;
+	}
+
+	int size() {
+	    return this.len;
+	}
+
+	void reset() {
+	    this.len = 0;
+	}
+    }
+}
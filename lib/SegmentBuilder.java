@@ -0,0 +1,140 @@
+/**
+ * <pre>
+ *
+ * Builds a transport segment ready to be sent: the Packet header, the Transport
+ * header and the payload, written in one pass into one buffer of exactly the
+ * right size. This replaces building a Transport, packing it, wrapping the
+ * result in a Packet and packing that again.
+ *
+ * The builder only holds the header fields, so one can be kept per node and
+ * reused for every segment:
+ *
+ *   byte[] segment = builder.network(dest, src, ttl, protocol, seq)
+ *                           .transport(srcPort, destPort, type, window, seqNum)
+ *                           .build(payloadLength);
+ *   // copy payloadLength bytes of payload to segment[PAYLOAD_OFFSET...]
+ *
+ * The header fields are checked when the segment is built, so the segment
+ * can be handed to Manager.sendTrustedPkt without being checked again.
+ * </pre>
+ */
+public class SegmentBuilder {
+
+	// Where the transport header and the payload start in a segment
+	public static final int TRANSPORT_OFFSET = Packet.HEADER_SIZE;
+	public static final int PAYLOAD_OFFSET = Packet.HEADER_SIZE + Transport.HEADER_SIZE;
+	public static final int MAX_PAYLOAD_SIZE = Transport.MAX_PAYLOAD_SIZE;
+
+	private int dest;
+	private int src;
+	private int ttl;
+	private int protocol;
+	private int packetSeq;
+	private int srcPort;
+	private int destPort;
+	private int type;
+	private int window;
+	private int seqNum;
+
+	/**
+	 * Sets the fields of the Packet header
+	 *
+	 * @param dest     The destination fishnet address
+	 * @param src      The source fishnet address
+	 * @param ttl      The time-to-live value
+	 * @param protocol What type of packet this is
+	 * @param seq      The sequence number of the packet
+	 * @return This builder
+	 */
+	public SegmentBuilder network(int dest, int src, int ttl, int protocol, int seq) {
+		this.dest = dest;
+		this.src = src;
+		this.ttl = ttl;
+		this.protocol = protocol;
+		this.packetSeq = seq;
+		return this;
+	}
+
+	/**
+	 * Sets the fields of the Transport header
+	 *
+	 * @param srcPort  The source port
+	 * @param destPort The destination port
+	 * @param type     The type of packet. Either SYN, ACK, FIN, DATA or DATA_ACK
+	 * @param window   The window size
+	 * @param seqNum   The sequence number of the transport packet
+	 * @return This builder
+	 */
+	public SegmentBuilder transport(int srcPort, int destPort, int type, int window, int seqNum) {
+		this.srcPort = srcPort;
+		this.destPort = destPort;
+		this.type = type;
+		this.window = window;
+		this.seqNum = seqNum;
+		return this;
+	}
+
+	/**
+	 * Builds a segment with room for the payload, which the caller copies in at
+	 * PAYLOAD_OFFSET
+	 *
+	 * @param payloadLength The number of payload bytes
+	 * @return The segment, with both headers written
+	 * @throws IllegalArgumentException If the header fields are invalid
+	 */
+	public byte[] build(int payloadLength) throws IllegalArgumentException {
+		byte[] segment = new byte[SegmentBuilder.segmentLength(payloadLength)];
+		this.writeTo(segment, 0, payloadLength);
+		return segment;
+	}
+
+	/**
+	 * Builds a segment carrying a copy of the given payload
+	 *
+	 * @param payload The array holding the payload
+	 * @param off     Where the payload starts
+	 * @param len     The number of payload bytes
+	 * @return The segment
+	 * @throws IllegalArgumentException If the header fields are invalid
+	 */
+	public byte[] build(byte[] payload, int off, int len) throws IllegalArgumentException {
+		byte[] segment = this.build(len);
+		System.arraycopy(payload, off, segment, PAYLOAD_OFFSET, len);
+		return segment;
+	}
+
+	/**
+	 * Writes both headers of a segment into a caller-supplied array. The payload
+	 * goes at off + PAYLOAD_OFFSET
+	 *
+	 * @param buf           The array to write into
+	 * @param off           Where the segment starts
+	 * @param payloadLength The number of payload bytes
+	 * @return The length of the segment
+	 * @throws IllegalArgumentException If the header fields are invalid
+	 * @throws IndexOutOfBoundsException If the segment does not fit
+	 */
+	public int writeTo(byte[] buf, int off, int payloadLength) throws IllegalArgumentException {
+		int length = SegmentBuilder.segmentLength(payloadLength);
+		if (!Transport.isValid(this.srcPort, this.destPort, this.type, payloadLength)
+				|| !Packet.isValid(this.dest, this.src, this.ttl, this.protocol, length)) {
+			throw new IllegalArgumentException("Either a port, the type, an address, the TTL or the protocol is not valid");
+		}
+		if (off < 0 || off + length > buf.length) {
+			throw new IndexOutOfBoundsException("Segment of length " + length + " does not fit at " + off);
+		}
+		Packet.writeHeader(buf, off, this.dest, this.src, this.ttl, this.protocol, this.packetSeq,
+				Transport.HEADER_SIZE + payloadLength);
+		Transport.writeHeader(buf, off + TRANSPORT_OFFSET, this.srcPort, this.destPort, this.type, this.window,
+				this.seqNum, payloadLength);
+		return length;
+	}
+
+	/**
+	 * @param payloadLength The number of payload bytes
+	 * @return The length of a segment carrying that many bytes
+	 */
+	public static int segmentLength(int payloadLength) {
+		return PAYLOAD_OFFSET + payloadLength;
+	}
+}
@@ -2,21 +2,28 @@ import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
-import java.lang.reflect.Method;
 
 /**
  * <pre>
  * Manages a simulation. All nodes are instantiated in process.
+ * In batch mode the simulation is headless and runs as fast as the CPU allows, optionally on several
+ * threads (see ParallelSimulation).
  * </pre>
  */
 public class Simulator extends Manager {
 
     public static final int MAX_NODES_TO_SIMULATE = Packet.MAX_ADDRESS - 1;
-    private long now;  // simulated time in microseconds
     private double timescale;
     private Node[] nodes;
     private SimulationCommandsParser topoFileParser;
     private IOThread ioThread;
+    // batch mode: no user input and no real-time waits
+    private boolean batch;
+    private long horizon;  // in batch mode, simulated time (in microseconds) to stop at. -1 to run until no events are left
+    private long eventsRun;
+    private long batchStartTime;  // real time when the batch run started, in microseconds
+    private int workers;  // number of threads to run a batch simulation on
+    private ParallelSimulation parallel;
 
     /**
      * Creates a new simulation
@@ -32,9 +39,12 @@ public class Simulator extends Manager {
 	    throw new IllegalArgumentException("Invalid number of nodes given to simulate. Nodes given: " + numNodes);
 	}
 
-	this.now = 0;
-
 	this.timescale = 1.0;
+	this.batch = false;
+	this.horizon = -1;
+	this.eventsRun = 0;
+	this.workers = 1;
+	this.parallel = null;
 
 	this.nodes = new Node[numNodes];
 	for(int i = 0; i < numNodes; i++) {
@@ -43,11 +53,9 @@ public class Simulator extends Manager {
 
 	this.topoFileParser = new SimulationCommandsParser(this);
 
-	long deferTill = this.topoFileParser.parseFile(topoFile, this.now);
+	long deferTill = this.topoFileParser.parseFile(topoFile, this.partition().now);
 
-	this.addEvent(deferTill, "parseRestOfTopoFile", this, null, null);
-	this.ioThread = new IOThread();
-	this.ioThread.start();
+	this.addEvent(deferTill, new Callback(() -> this.parseRestOfTopoFile()));
     }
 
     /**
@@ -59,7 +67,16 @@ public class Simulator extends Manager {
 	    this.nodes[i].start();
 	}
 
-	this.now = 1;
+	Partition clock = this.partition();
+	clock.now = 1;
+
+	if(this.batch) {
+	    this.runBatch();
+	    return;
+	}
+
+	this.ioThread = new IOThread();
+	this.ioThread.start();
 
 	Event nextEvent;
 	long waitTime; // time in microseconds
@@ -72,12 +89,12 @@ public class Simulator extends Manager {
 	    waitTime = -1;  // wait indefinitely
 	    if(!this.sortedEvents.isEmpty()) {
 		nextEvent = this.sortedEvents.getNextEvent();
-		deltaTime = nextEvent.timeToOccur() - this.now;
+		deltaTime = nextEvent.timeToOccur() - clock.now;
 
 		waitTime = 0; // Don't wait for user input. If delta time > 0 then will get reset below
 
 	    }else if(deferParsingTill >= 0) {
-		deltaTime = deferParsingTill - this.now;
+		deltaTime = deferParsingTill - clock.now;
 		waitTime = 0;
 	    }
 
@@ -92,18 +109,18 @@ public class Simulator extends Manager {
 	    // Process user input if there is any
 	    if(userInput != null) {
 		// Increment now
-		this.now += (long)((Utility.fishTime() - beforeInputTime) * this.timescale);
+		clock.now += (long)((Utility.fishTime() - beforeInputTime) * this.timescale);
 
-		this.parser.parseLine(userInput, this.now);
+		this.parser.parseLine(userInput, clock.now);
 	    }else {
 		// Have waited appropriate amount of real time, so can fast-forward now
-		this.now = Math.max(this.now, deltaTime + this.now);
+		clock.now = Math.max(clock.now, deltaTime + clock.now);
 
 		// Run all pending events
-		while((nextEvent != null) && (nextEvent.timeToOccur() <= this.now)) {
-		    this.sortedEvents.removeNextEvent();
+		while((nextEvent != null) && (nextEvent.timeToOccur() <= clock.now)) {
+		    nextEvent = this.sortedEvents.removeNextEvent();
 		    try {
-			nextEvent.callback().invoke();
+			this.runEvent(nextEvent);
 		    }catch(Exception e) {
 			System.err.println("Exception while trying to invoke method in Simulator. Error: " + e);
 			e.printStackTrace();
@@ -115,29 +132,58 @@ public class Simulator extends Manager {
     }
 
     /**
-     * Send the pkt to the specified node
+     * Stops the simulation, printing a summary of the batch run first if in batch mode
+     */
+    public void stop() {
+	if(this.parallel != null) {
+	    this.eventsRun = this.parallel.eventsRun();
+	}
+	if(this.batch) {
+	    long elapsed = Math.max(1, (Utility.fishTime() - this.batchStartTime) / 1000);
+	    System.err.println("Batch run finished at simulated time: " + this.now() + " msec." +
+			       "\nNumber of events run: " + this.eventsRun +
+			       "\nReal time elapsed: " + elapsed + " msec" +
+			       "\nEvents per second: " + (this.eventsRun * 1000 / elapsed));
+	}
+	super.stop();
+    }
+
+    /**
+     * Puts a packet on the wire. See Manager.transmit
      * @param from The node that is sending the packet
      * @param to Int spefying the destination node
-     * @param pkt The packet to be sent, serialized to a byte array
+     * @param buf The array holding the packet
+     * @param len The length of the packet
+     * @param pooled True if buf must be released once the packet is delivered or dropped
      * @return True if the packet was sent, false otherwise
-     * @throws IllegalArgumentException If the arguments are invalid
      */
-    public boolean sendPkt(int from, int to, byte[] pkt) throws IllegalArgumentException {
-	super.sendPkt(from, to, pkt);  // check arguments
+    protected boolean transmit(int from, int to, byte[] buf, int len, boolean pooled) {
 	Edge edge;
 	if(to == Packet.BROADCAST_ADDRESS) {
 	    for(int i = 0; i < this.nodes.length; i++) {
 		edge = Topology.GetInstance().getLiveEdge(from, i);
 		if(edge != null) {
-		    this.deliverPkt(i, this.nodes[i], from, pkt, edge);
+		    // every receiver gets its own copy, which it releases
+		    byte[] copy = buf;
+		    if(pooled) {
+			copy = this.acquireBuffer(len);
+			System.arraycopy(buf, 0, copy, 0, len);
+		    }
+		    this.deliverPkt(i, this.nodes[i], from, copy, len, pooled, edge);
 		}
 
 		//this.nodes[from].onReceive(from, pkt);  // Should the node that broadcast also receive the pkt?
 	    }
+	    if(pooled) {
+		this.releaseBuffer(buf);
+	    }
 	}else if((edge = Topology.GetInstance().getLiveEdge(from, to)) != null) {
-	    this.deliverPkt(to, this.nodes[to], from, pkt, edge);
+	    this.deliverPkt(to, this.nodes[to], from, buf, len, pooled, edge);
 	}else {
 	    System.err.println("Failed to send pkt from: " + from + " to: " + to);
+	    if(pooled) {
+		this.releaseBuffer(buf);
+	    }
 	    return false;
 	}
 	return true;
@@ -148,7 +194,15 @@ public class Simulator extends Manager {
      * @return Current time in milliseconds
      */
     public long now() {
-	return this.now / 1000;
+	return this.partition().now / 1000;
+    }
+
+    /**
+     * Retrieve current time in microseconds
+     * @return Current time in microseconds
+     */
+    public long nowMicros() {
+	return this.partition().now;
     }
 
     /**
@@ -156,14 +210,14 @@ public class Simulator extends Manager {
      * @param nodeAddr Addr of node that is registering this timer
      * @param t The time when the timer should fire. Its in milliseconds
      * @param callback The callback to be invoked when the timer fires
+     * @return A handle for the timer. Null if the node address is not valid
      */
-    public void addTimerAt(int nodeAddr, long t, Callback callback) {
+    public Event addTimerAt(int nodeAddr, long t, Callback callback) {
 	if( (!this.isNodeAddrValid(nodeAddr)) ) {
-	    return;
+	    return null;
 	}
 
-	super.addTimerAt(nodeAddr, t, callback);
-
+	return super.addTimerAt(nodeAddr, t, callback);
     }
 
     /**
@@ -188,21 +242,104 @@ public class Simulator extends Manager {
 	this.timescale = timescale;
     }
 
+    /**
+     * Runs the simulation in batch mode: user input is not read and events are run as fast as possible,
+     * without waiting for real time to pass. The run ends when no events are left, when the horizon is reached,
+     * or when an exit command is parsed
+     * @param horizon Simulated time to stop at, in milliseconds. -1 to run until no events are left
+     */
+    public void setBatch(long horizon) {
+	this.batch = true;
+	this.horizon = (horizon < 0) ? -1 : horizon * 1000;
+    }
+
+    /**
+     * Runs batch simulations on several threads. The output is the same whatever the number of threads,
+     * and the same from one run to the next if a seed was given
+     * @param workers The number of threads. 1 to run sequentially
+     */
+    public void setWorkers(int workers) {
+	this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Seeds the random numbers of the nodes and edges, so that the run can be repeated
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+	super.setSeed(seed);
+	Topology.GetInstance().setSeed(seed);
+    }
+
     /**
      * Parses rest of topology file. Has public accesibility since used as a callback
      */
     public void parseRestOfTopoFile() {
-	long deferTill = this.topoFileParser.parseRemainder(this.now);
-	this.addEvent(deferTill, "parseRestOfTopoFile", this, null, null);
+	long deferTill = this.topoFileParser.parseRemainder(this.partition().now);
+	this.addEvent(deferTill, new Callback(() -> this.parseRestOfTopoFile()));
+    }
+
+    /**
+     * Parses the fishnet file up to the next time command, and schedules itself to carry on from there.
+     * Used in batch mode, where the fishnet file is not polled by the main loop
+     */
+    public void parseRestOfFishFile() {
+	long deferTill;
+	do {
+	    deferTill = this.readFishFile(0);
+	} while(deferTill == 0);
+	this.addEvent(deferTill, new Callback(() -> this.parseRestOfFishFile()));
     }
 
     /******************** Private Functions ********************/
 
+    private void runBatch() {
+	this.batchStartTime = Utility.fishTime();
+	if(this.reader != null) {
+	    this.parseRestOfFishFile();
+	}
+
+	if(this.workers > 1) {
+	    this.parallel = new ParallelSimulation(this, this.partition(), this.nodes.length, this.workers,
+						   this.getEventScheduler());
+	    this.parallel.run(this.horizon);
+	    this.stop();
+	    return;
+	}
+
+	Partition clock = this.partition();
+	Event nextEvent;
+	while((nextEvent = this.sortedEvents.getNextEvent()) != null) {
+	    if(this.horizon >= 0 && nextEvent.timeToOccur() > this.horizon) {
+		clock.now = this.horizon;
+		break;
+	    }
+	    this.sortedEvents.removeNextEvent();
+	    clock.now = Math.max(clock.now, nextEvent.timeToOccur());
+	    this.eventsRun++;
+	    try {
+		this.runEvent(nextEvent);
+	    }catch(Exception e) {
+		System.err.println("Exception while trying to invoke method in Simulator. Error: " + e);
+		e.printStackTrace();
+	    }
+	}
+	this.stop();
+    }
+
+    protected Partition partition() {
+	return (this.parallel == null) ? super.partition() : this.parallel.current();
+    }
+
+    protected Partition partitionOf(int nodeAddr) {
+	return (this.parallel == null) ? super.partitionOf(nodeAddr) : this.parallel.partitionOf(nodeAddr);
+    }
+
     private boolean isNodeAddrValid(int nodeAddr) {
 	return ((nodeAddr >= 0) && (nodeAddr < this.nodes.length));
     }
 
-    private void deliverPkt(int destAddr, Node destNode, int srcAddr, byte[] pkt, Edge edge) {
+    private void deliverPkt(int destAddr, Node destNode, int srcAddr, byte[] buf, int len, boolean pooled, Edge edge) {
         /*
          * Mar. 12, 2006
          * Hao Wang
@@ -213,15 +350,65 @@ public class Simulator extends Manager {
 	/*
          * long timeToDeliver = edge.schedulePkt(srcAddr, pkt.length, this.now);
          */
-        long timeToDeliver = edge.schedulePkt(this,srcAddr, pkt.length, this.now);
+        Partition partition = this.partition();
+        long timeToDeliver = edge.schedulePkt(this, srcAddr, buf, 0, len, partition.now);
 	if(timeToDeliver == -1) {
+	    if(pooled) {
+		this.releaseBuffer(buf);
+	    }
 	    return;  // pkt dropped
 	}
 
-	String[] paramTypes = {"java.lang.Integer", "[B"};
-	// Object[] params = {new Integer(srcAddr), pkt};
-	Object[] params = {srcAddr, pkt};
-	this.addEvent(timeToDeliver, "onReceive", destNode, paramTypes, params);
+	Delivery delivery = partition.deliveries;
+	if(delivery == null) {
+	    delivery = new Delivery(this);
+	}else {
+	    partition.deliveries = delivery.next;
+	}
+	delivery.set(destNode, srcAddr, buf, len, pooled);
+	this.addEvent(destAddr, timeToDeliver, delivery.callback);
+    }
+
+    /**
+     * A packet on its way to a node. Deliveries are pooled in the partitions, like events
+     */
+    static class Delivery implements Callback.Task {
+	private Simulator simulator;
+	private Node destNode;
+	private int srcAddr;
+	private byte[] buf;
+	private int len;
+	private boolean pooled;
+	final Callback callback;
+	Delivery next;
+
+	Delivery(Simulator simulator) {
+	    this.simulator = simulator;
+	    this.callback = new Callback(this);
+	}
+
+	void set(Node destNode, int srcAddr, byte[] buf, int len, boolean pooled) {
+	    this.destNode = destNode;
+	    this.srcAddr = srcAddr;
+	    this.buf = buf;
+	    this.len = len;
+	    this.pooled = pooled;
+	}
+
+	public void run() {
+	    try {
+		this.destNode.onReceive(this.srcAddr, this.buf, this.len);
+	    } finally {
+		// the node has to copy whatever it keeps, so the array can go back now
+		if(this.pooled) {
+		    this.simulator.releaseBuffer(this.buf);
+		}
+		this.set(null, 0, null, 0, false);
+		Partition partition = this.simulator.partition();
+		this.next = partition.deliveries;
+		partition.deliveries = this;
+	    }
+	}
     }
 
     private String getUserInput(long timeout) {
@@ -1,21 +1,63 @@
-import java.util.LinkedList;
-import java.util.ListIterator;
-import java.lang.IndexOutOfBoundsException;
-
 /**
  * <pre>   
  * This is a list of Events which should kept sorted by the time at which they are to be invoked.
+ * Events with the same time are invoked in order of their seq: the order they were added, unless the
+ * Manager stamped them itself (see Manager.enqueue).
+ * The Manager stamps every event of a simulation or emulation, sequential or parallel, by the node whose event
+ * created it and then by that node's count. So simultaneous events no longer run in global FIFO order, as they
+ * did before parallel simulation: they run in order of creating node (the manager's own events first), and
+ * FIFO among the events of one node. This is what lets a parallel run give the same output as a sequential one.
+ * The ordering itself is delegated to a pluggable EventScheduler, chosen by name:
+ *   list     -- the original sorted linked list, O(n) insertion
+ *   heap     -- binary heap, O(log n) insertion and removal (default)
+ *   calendar -- calendar queue, O(1) average for dense timestamps
  * </pre>   
  */
 public class SortedEventQueue {
 
-    private LinkedList<Event> eventList;
+    public static final String LIST = "list";
+    public static final String HEAP = "heap";
+    public static final String CALENDAR = "calendar";
+    public static final String DEFAULT_SCHEDULER = HEAP;
+
+    private EventScheduler scheduler;
+    private long nextSeq;
 
     /**
-     * Create a new empty event queue.
+     * Create a new empty event queue, using the default scheduler.
      */
     public SortedEventQueue() {
-	   this.eventList = new LinkedList<Event>();
+	this.scheduler = SortedEventQueue.createScheduler(DEFAULT_SCHEDULER);
+	this.nextSeq = 0;
+    }
+
+    /**
+     * Create a scheduler by name
+     * @param name One of LIST, HEAP or CALENDAR
+     * @return The new scheduler
+     * @throws IllegalArgumentException If the name is unknown
+     */
+    public static EventScheduler createScheduler(String name) throws IllegalArgumentException {
+	if (LIST.equals(name)) {
+	    return new ListEventScheduler();
+	} else if (HEAP.equals(name)) {
+	    return new HeapEventScheduler();
+	} else if (CALENDAR.equals(name)) {
+	    return new CalendarEventScheduler();
+	}
+	throw new IllegalArgumentException("Unknown event scheduler: " + name);
+    }
+
+    /**
+     * Switch to another scheduler. Events already queued are moved to the new scheduler.
+     * @param scheduler The scheduler to use from now on
+     */
+    public void setScheduler(EventScheduler scheduler) {
+	Event event;
+	while ((event = this.scheduler.poll()) != null) {
+	    scheduler.add(event);
+	}
+	this.scheduler = scheduler;
     }
 
     /**
@@ -23,16 +65,31 @@ public class SortedEventQueue {
      * @param event The event to add to the queue.
      */
     public void addEvent(Event event) {
-	   ListIterator sortedIterator = eventList.listIterator();
+	event.seq = this.nextSeq++;
+	event.queued = true;
+	this.scheduler.add(event);
+    }
 
-	   while (sortedIterator.hasNext()) {
-	    if (event.timeToOccur() < ((Event)(sortedIterator.next())).timeToOccur()) {
-		  this.eventList.add(sortedIterator.previousIndex(), event);		
-		  return;
-	    }
-	   }
-	   //If you've gotten to the end of the list, add it there.
-	   this.eventList.add(event); 
+    /**
+     * Add an event to the queue, keeping the seq it was stamped with by the caller.
+     * @param event The event to add to the queue.
+     */
+    void insertEvent(Event event) {
+	event.queued = true;
+	this.scheduler.add(event);
+    }
+
+    /**
+     * Remove an event from the queue before it happens.
+     * @param event The event to remove
+     * @return True if the event was in the queue
+     */
+    public boolean removeEvent(Event event) {
+	if (!event.queued) {
+	    return false;
+	}
+	event.queued = false;
+	return this.scheduler.remove(event);
     }
 
     /**
@@ -40,10 +97,7 @@ public class SortedEventQueue {
      * @return The next Event to happen. Returns null if the queue is empty
      */
     public Event getNextEvent() {
-	   if(this.isEmpty()) {
-	    return null;
-	   }
-	   return (Event)(this.eventList.getFirst());
+	return this.scheduler.peek();
     }
 
     /**
@@ -51,10 +105,11 @@ public class SortedEventQueue {
      * @return The next Event to happen. Returns null if the queue is empty
      */
     public Event removeNextEvent() {
-	if(this.isEmpty()) {
-	    return null;
+	Event event = this.scheduler.poll();
+	if (event != null) {
+	    event.queued = false;
 	}
-	return (Event)(this.eventList.removeFirst());
+	return event;
     }
     
     /**
@@ -62,6 +117,13 @@ public class SortedEventQueue {
      * @return True if the event queue is empty
      */
     public boolean isEmpty() {
-	return (this.eventList.size() == 0);
+	return (this.scheduler.size() == 0);
+    }
+
+    /**
+     * @return The number of events in the queue
+     */
+    public int size() {
+	return this.scheduler.size();
     }
 }
@@ -13,6 +13,7 @@ public class Topology {
     private ArrayList<Edge> edges;
     private HashMap<Integer, Object> failedNodes;
     private boolean allToAll;
+    private Long seed;  // seed given to the edges, null to seed them differently every run
     private static Topology topology = null;
 
     /**
@@ -81,6 +82,9 @@ public class Topology {
             e.setOptions(options);
 	}else {
 	    e = new Edge(a, b, options);
+	    if (this.seed != null) {
+		e.setSeed(this.seed);
+	    }
 	    edges.add(e);
 	}
     }
@@ -123,6 +127,33 @@ public class Topology {
         this.failedNodes.remove(a);
     }
 
+    /**
+     * Seeds the edges, so that the same packets are lost every time a run is repeated
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+	this.seed = seed;
+	for (Edge e : this.edges) {
+	    e.setSeed(seed);
+	}
+    }
+
+    /**
+     * The least time a packet of the given size can take to cross any edge, dead or live.
+     * Nothing a node sends can reach another node sooner than this
+     * @param size The size of the packet in bytes
+     * @return The time in microseconds. Long.MAX_VALUE if there are no edges
+     */
+    public long minTransitTime(int size) {
+	long min = Long.MAX_VALUE;
+	if (this.allToAll) {
+	    min = new Edge(0, 1, new EdgeOptions()).minTransitTime(size);
+	}
+	for (Edge e : this.edges) {
+	    min = Math.min(min, e.minTransitTime(size));
+	}
+	return min;
+    }
 
     //********** Private Functions **********
 
@@ -130,6 +161,7 @@ public class Topology {
 	this.edges = new ArrayList<Edge>();
 	this.failedNodes = new HashMap<Integer, Object>();
 	this.allToAll = allToAll;
+	this.seed = null;
     }
 
     private Edge getEdge(int a, int b) {
@@ -1,6 +1,4 @@
-import java.math.BigInteger;
-import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * <pre>
@@ -21,6 +19,38 @@ public class Transport {
 	public static final int ACK = 1;
 	public static final int FIN = 2;
 	public static final int DATA = 3;
+	public static final int DATA_ACK = 4; // DATA carrying an ACK for the data flowing the other way, see below
+
+	// Offsets of the header fields in the packed transport packet
+	public static final int SRC_PORT_OFFSET = 0;
+	public static final int DEST_PORT_OFFSET = 1;
+	public static final int TYPE_OFFSET = 2;
+	public static final int WINDOW_OFFSET = 3; // 4 bytes, most significant first
+	public static final int SEQ_OFFSET = 7; // 4 bytes, most significant first
+	public static final int LENGTH_OFFSET = 11;
+
+	// Options are carried in the payload of SYN and ACK packets, which carry no data, and before the data of
+	// DATA_ACK packets. Each option is a kind byte, a length byte counting the whole option, and the option data.
+	// Options that are not known are skipped, and peers that know no options ignore the payload of SYN and ACK
+	// packets altogether
+	public static final int OPTION_END = 0; // no more options
+	public static final int OPTION_NOP = 1; // one byte of padding, without a length
+	public static final int OPTION_SACK_PERMITTED = 4; // no data. Offered on a SYN, accepted on the ACK for it
+	public static final int OPTION_SACK = 5; // blocks of data received past the ACKed sequence number
+	public static final int OPTION_ECN_PERMITTED = 6; // no data. Offered on a SYN, accepted on the ACK for it
+	public static final int OPTION_ECN_ECHO = 7; // the number of DATA packets received marked congestion experienced
+	public static final int SACK_PERMITTED_LENGTH = 2;
+	public static final int SACK_BLOCK_SIZE = 8; // first seq and seq past the end of the block, 4 bytes each
+	public static final int MAX_SACK_BLOCKS = (MAX_PAYLOAD_SIZE - 2) / SACK_BLOCK_SIZE;
+	public static final int ECN_PERMITTED_LENGTH = 2;
+	public static final int ECN_ECHO_LENGTH = 6; // a count of 4 bytes
+
+	// The payload of a DATA_ACK packet starts with the ACKed sequence number (4 bytes) and the length of the
+	// options that follow (1 byte). Then come the options, as on an ACK packet, and then the data. The header
+	// carries the sequence number of the data and, in the window field, the window an ACK would carry
+	public static final int ACK_NUM_OFFSET = 0;
+	public static final int ACK_OPTIONS_LENGTH_OFFSET = 4;
+	public static final int PIGGYBACK_HEADER_SIZE = 5;
 
 	private int srcPort;
 	private int destPort;
@@ -34,15 +64,14 @@ public class Transport {
 	 * 
 	 * @param srcPort  The source port
 	 * @param destPort The destination port
-	 * @param type     The type of packet. Either SYN, ACK, FIN, or DATA
+	 * @param type     The type of packet. Either SYN, ACK, FIN, DATA or DATA_ACK
 	 * @param window   The window size
 	 * @param seqNum   The sequence number of the packet
 	 * @param payload  The payload of the packet.
 	 */
 	public Transport(int srcPort, int destPort, int type, int window, int seqNum, byte[] payload)
 			throws IllegalArgumentException {
-		if (srcPort < 0 || srcPort > MAX_PORT_NUM || destPort < 0 || destPort > MAX_PORT_NUM || type < SYN
-				|| type > DATA || payload.length > MAX_PAYLOAD_SIZE) {
+		if (!Transport.isValid(srcPort, destPort, type, payload.length)) {
 			throw new IllegalArgumentException("Illegal arguments given to Transport packet");
 		}
 
@@ -54,6 +83,11 @@ public class Transport {
 		this.payload = payload;
 	}
 
+	static boolean isValid(int srcPort, int destPort, int type, int payloadLength) {
+		return srcPort >= 0 && srcPort <= MAX_PORT_NUM && destPort >= 0 && destPort <= MAX_PORT_NUM && type >= SYN
+				&& type <= DATA_ACK && payloadLength >= 0 && payloadLength <= MAX_PAYLOAD_SIZE;
+	}
+
 	/**
 	 * @return The source port
 	 */
@@ -106,72 +140,222 @@ public class Transport {
 	 *         some reason
 	 */
 	public byte[] pack() {
+		byte[] packed = new byte[HEADER_SIZE + this.payload.length];
+		this.pack(packed, 0);
+		return packed;
+	}
 
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-		byteStream.write(this.srcPort);
-		byteStream.write(this.destPort);
-		byteStream.write(this.type);
+	/**
+	 * Packs the transport packet into a caller-supplied array, in the format of
+	 * pack()
+	 * 
+	 * @param buf The array to pack into
+	 * @param off Where the transport packet should start
+	 * @return The number of bytes written
+	 * @throws IndexOutOfBoundsException If the transport packet does not fit
+	 */
+	public int pack(byte[] buf, int off) {
+		Transport.writeHeader(buf, off, this.srcPort, this.destPort, this.type, this.window, this.seqNum,
+				this.payload.length);
+		System.arraycopy(this.payload, 0, buf, off + HEADER_SIZE, this.payload.length);
+		return HEADER_SIZE + this.payload.length;
+	}
 
-		// write 4 bytes for window size
-		byte[] windowByteArray = (BigInteger.valueOf(this.window)).toByteArray();
-		int paddingLength = 4 - windowByteArray.length;
-		for (int i = 0; i < paddingLength; i++) {
-			byteStream.write(0);
-		}
-		byteStream.write(windowByteArray, 0, Math.min(windowByteArray.length, 4));
+	/**
+	 * Packs the transport packet into a buffer at its position, in the format of
+	 * pack(), and advances the position past it
+	 * 
+	 * @param buf The buffer to pack into
+	 * @throws java.nio.BufferOverflowException If the transport packet does not fit
+	 */
+	public void pack(ByteBuffer buf) {
+		Transport.writeHeader(buf, this.srcPort, this.destPort, this.type, this.window, this.seqNum,
+				this.payload.length);
+		buf.put(this.payload);
+	}
 
-		// write 4 bytes for sequence number
-		byte[] seqByteArray = (BigInteger.valueOf(this.seqNum)).toByteArray();
-		paddingLength = 4 - seqByteArray.length;
-		for (int i = 0; i < paddingLength; i++) {
-			byteStream.write(0);
-		}
-		byteStream.write(seqByteArray, 0, Math.min(seqByteArray.length, 4));
+	/**
+	 * Writes a transport header into a caller-supplied array, leaving the payload
+	 * that follows it alone
+	 * 
+	 * @param buf           The array to write into
+	 * @param off           Where the transport packet starts
+	 * @param srcPort       The source port
+	 * @param destPort      The destination port
+	 * @param type          The type of packet. Either SYN, ACK, FIN, DATA or DATA_ACK
+	 * @param window        The window size
+	 * @param seqNum        The sequence number of the packet
+	 * @param payloadLength The number of payload bytes that follow the header
+	 * @throws IndexOutOfBoundsException If the header does not fit
+	 */
+	public static void writeHeader(byte[] buf, int off, int srcPort, int destPort, int type, int window, int seqNum,
+			int payloadLength) {
+		buf[off + SRC_PORT_OFFSET] = (byte) srcPort;
+		buf[off + DEST_PORT_OFFSET] = (byte) destPort;
+		buf[off + TYPE_OFFSET] = (byte) type;
+		Utility.writeInt(buf, off + WINDOW_OFFSET, window);
+		Utility.writeInt(buf, off + SEQ_OFFSET, seqNum);
+		buf[off + LENGTH_OFFSET] = (byte) (HEADER_SIZE + payloadLength);
+	}
 
-		byteStream.write(HEADER_SIZE + this.payload.length);
-		byteStream.write(this.payload, 0, this.payload.length);
+	/**
+	 * Writes a transport header into a buffer at its position, and advances the
+	 * position past it
+	 * 
+	 * @see #writeHeader(byte[], int, int, int, int, int, int, int)
+	 */
+	public static void writeHeader(ByteBuffer buf, int srcPort, int destPort, int type, int window, int seqNum,
+			int payloadLength) {
+		buf.put((byte) srcPort);
+		buf.put((byte) destPort);
+		buf.put((byte) type);
+		buf.putInt(window);
+		buf.putInt(seqNum);
+		buf.put((byte) (HEADER_SIZE + payloadLength));
+	}
 
-		return byteStream.toByteArray();
+	/**
+	 * Writes a SACK permitted option
+	 * 
+	 * @param buf The array to write into
+	 * @param off Where the option starts
+	 * @return The length of the option
+	 */
+	public static int writeSackPermitted(byte[] buf, int off) {
+		buf[off] = (byte) OPTION_SACK_PERMITTED;
+		buf[off + 1] = (byte) SACK_PERMITTED_LENGTH;
+		return SACK_PERMITTED_LENGTH;
 	}
 
 	/**
-	 * Unpacks a byte array to create a Transport object Assumes the array has been
-	 * formatted using pack method in Transport
+	 * Writes the kind and length of a SACK option. The blocks follow, see
+	 * writeSackBlock
 	 * 
-	 * @param packet String representation of the transport packet
-	 * @return Transport object created or null if the byte[] representation was
-	 *         corrupted
+	 * @param buf    The array to write into
+	 * @param off    Where the option starts
+	 * @param blocks The number of blocks, at most MAX_SACK_BLOCKS
+	 * @return The length of the option, blocks included
 	 */
-	public static Transport unpack(byte[] packet) {
-		ByteArrayInputStream byteStream = new ByteArrayInputStream(packet);
+	public static int writeSack(byte[] buf, int off, int blocks) {
+		buf[off] = (byte) OPTION_SACK;
+		buf[off + 1] = (byte) Transport.sackLength(blocks);
+		return Transport.sackLength(blocks);
+	}
 
-		int srcPort = byteStream.read();
-		int destPort = byteStream.read();
-		int type = byteStream.read();
+	/**
+	 * Writes a block of a SACK option
+	 * 
+	 * @param buf   The array holding the option
+	 * @param off   Where the option starts
+	 * @param i     The index of the block
+	 * @param start The sequence number of the first byte of the block
+	 * @param end   The sequence number past the last byte of the block
+	 */
+	public static void writeSackBlock(byte[] buf, int off, int i, int start, int end) {
+		Utility.writeInt(buf, off + 2 + i * SACK_BLOCK_SIZE, start);
+		Utility.writeInt(buf, off + 2 + i * SACK_BLOCK_SIZE + 4, end);
+	}
 
-		byte[] windowByteArray = new byte[4];
-		if (byteStream.read(windowByteArray, 0, 4) != 4) {
-			return null;
-		}
-		int window = (new BigInteger(windowByteArray)).intValue();
+	/**
+	 * @return The sequence number of the first byte of block i of the SACK option at off
+	 */
+	public static int readSackStart(byte[] buf, int off, int i) {
+		return Utility.readInt(buf, off + 2 + i * SACK_BLOCK_SIZE);
+	}
 
-		byte[] seqByteArray = new byte[4];
-		if (byteStream.read(seqByteArray, 0, 4) != 4) {
-			return null;
-		}
-		int seqNum = (new BigInteger(seqByteArray)).intValue();
+	/**
+	 * @return The sequence number past the last byte of block i of the SACK option at off
+	 */
+	public static int readSackEnd(byte[] buf, int off, int i) {
+		return Utility.readInt(buf, off + 2 + i * SACK_BLOCK_SIZE + 4);
+	}
 
-		int packetLength = byteStream.read();
+	/**
+	 * @param blocks The number of blocks
+	 * @return The length of a SACK option carrying that many blocks
+	 */
+	public static int sackLength(int blocks) {
+		return 2 + blocks * SACK_BLOCK_SIZE;
+	}
 
-		byte[] payload = new byte[packetLength - HEADER_SIZE];
-		int bytesRead = Math.max(0, byteStream.read(payload, 0, payload.length));
+	/**
+	 * @param length The length of a SACK option
+	 * @return The number of blocks it carries
+	 */
+	public static int sackBlocks(int length) {
+		return Math.max(0, (length - 2) / SACK_BLOCK_SIZE);
+	}
+
+	/**
+	 * Writes an ECN permitted option
+	 * 
+	 * @param buf The array to write into
+	 * @param off Where the option starts
+	 * @return The length of the option
+	 */
+	public static int writeEcnPermitted(byte[] buf, int off) {
+		buf[off] = (byte) OPTION_ECN_PERMITTED;
+		buf[off + 1] = (byte) ECN_PERMITTED_LENGTH;
+		return ECN_PERMITTED_LENGTH;
+	}
 
-		if ((HEADER_SIZE + bytesRead) != packetLength) {
+	/**
+	 * Writes an ECN echo option. The count runs over the whole connection and
+	 * wraps, so that ACKs that are lost or coalesced lose no marks
+	 * 
+	 * @param buf   The array to write into
+	 * @param off   Where the option starts
+	 * @param count The number of DATA packets received so far that were marked
+	 *              congestion experienced
+	 * @return The length of the option
+	 */
+	public static int writeEcnEcho(byte[] buf, int off, int count) {
+		buf[off] = (byte) OPTION_ECN_ECHO;
+		buf[off + 1] = (byte) ECN_ECHO_LENGTH;
+		Utility.writeInt(buf, off + 2, count);
+		return ECN_ECHO_LENGTH;
+	}
+
+	/**
+	 * @return The count of the ECN echo option at off
+	 */
+	public static int readEcnEcho(byte[] buf, int off) {
+		return Utility.readInt(buf, off + 2);
+	}
+
+	/**
+	 * Writes the start of the payload of a DATA_ACK packet. The options follow,
+	 * and the data after them
+	 * 
+	 * @param buf           The array to write into
+	 * @param off           Where the payload starts
+	 * @param ackNum        The sequence number ACKed
+	 * @param optionsLength The length of the options that follow
+	 * @return PIGGYBACK_HEADER_SIZE
+	 */
+	public static int writePiggybackedAck(byte[] buf, int off, int ackNum, int optionsLength) {
+		Utility.writeInt(buf, off + ACK_NUM_OFFSET, ackNum);
+		buf[off + ACK_OPTIONS_LENGTH_OFFSET] = (byte) optionsLength;
+		return PIGGYBACK_HEADER_SIZE;
+	}
+
+	/**
+	 * Unpacks a byte array to create a Transport object Assumes the array has been
+	 * formatted using pack method in Transport
+	 * 
+	 * @param packet String representation of the transport packet
+	 * @return Transport object created or null if the byte[] representation was
+	 *         corrupted
+	 */
+	public static Transport unpack(byte[] packet) {
+		TransportView view = new TransportView().wrap(packet, 0, packet.length);
+		if (!view.isWellFormed()) {
 			return null;
 		}
 
 		try {
-			return new Transport(srcPort, destPort, type, window, seqNum, payload);
+			return new Transport(view.getSrcPort(), view.getDestPort(), view.getType(), view.getWindow(),
+					view.getSeqNum(), view.copyPayload());
 		} catch (IllegalArgumentException e) {
 			// will return null
 		}
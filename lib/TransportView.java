@@ -0,0 +1,216 @@
+import java.nio.ByteBuffer;
+
+/**
+ * <pre>
+ *
+ * A read-only view of a packed Transport packet, usually the payload of a
+ * PacketView. The header fields are read from the wire format when asked for
+ * and the payload is never copied, so one view can be reused for every segment
+ * a node receives.
+ * </pre>
+ */
+public class TransportView {
+
+	private byte[] buf;
+	private int off;
+	private int len;
+
+	/**
+	 * Points the view at a packed transport packet
+	 *
+	 * @param buf The array holding the transport packet
+	 * @param off Where the transport packet starts
+	 * @param len The number of bytes available, at least the transport packet length
+	 * @return This view
+	 */
+	public TransportView wrap(byte[] buf, int off, int len) {
+		this.buf = buf;
+		this.off = off;
+		this.len = len;
+		return this;
+	}
+
+	/**
+	 * Points the view at the packed transport packet between a buffer's position
+	 * and limit
+	 *
+	 * @param buf The buffer holding the transport packet. Must be backed by an array
+	 * @return This view
+	 */
+	public TransportView wrap(ByteBuffer buf) {
+		return this.wrap(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+	}
+
+	/**
+	 * Tests if the bytes can be read as a transport packet: there is a whole
+	 * header, and the length it carries fits in the bytes available. Bytes past
+	 * that length are ignored, as Transport.unpack does
+	 *
+	 * @return True if the fields can be read
+	 */
+	public boolean isWellFormed() {
+		if (this.len < Transport.HEADER_SIZE) {
+			return false;
+		}
+		int length = this.getLength();
+		if (length < Transport.HEADER_SIZE || length > this.len) {
+			return false;
+		}
+		// a DATA_ACK packet has room for its ACK number and its options
+		return this.getType() != Transport.DATA_ACK || (this.getPayloadLength() >= Transport.PIGGYBACK_HEADER_SIZE
+				&& this.getDataOffset() <= this.getPayloadOffset() + this.getPayloadLength());
+	}
+
+	/**
+	 * @return The source port
+	 */
+	public int getSrcPort() {
+		return this.buf[this.off + Transport.SRC_PORT_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The destination port
+	 */
+	public int getDestPort() {
+		return this.buf[this.off + Transport.DEST_PORT_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The type of the packet
+	 */
+	public int getType() {
+		return this.buf[this.off + Transport.TYPE_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The window size
+	 */
+	public int getWindow() {
+		return Utility.readInt(this.buf, this.off + Transport.WINDOW_OFFSET);
+	}
+
+	/**
+	 * @return The sequence number
+	 */
+	public int getSeqNum() {
+		return Utility.readInt(this.buf, this.off + Transport.SEQ_OFFSET);
+	}
+
+	/**
+	 * @return The length of the transport packet, header included, as carried in the header
+	 */
+	public int getLength() {
+		return this.buf[this.off + Transport.LENGTH_OFFSET] & 0xFF;
+	}
+
+	/**
+	 * @return The array holding the transport packet
+	 */
+	public byte[] getBuffer() {
+		return this.buf;
+	}
+
+	/**
+	 * @return Where the payload starts in the array
+	 */
+	public int getPayloadOffset() {
+		return this.off + Transport.HEADER_SIZE;
+	}
+
+	/**
+	 * @return The number of payload bytes
+	 */
+	public int getPayloadLength() {
+		return this.getLength() - Transport.HEADER_SIZE;
+	}
+
+	/**
+	 * @return The sequence number ACKed by a DATA_ACK packet
+	 */
+	public int getAckNum() {
+		return Utility.readInt(this.buf, this.getPayloadOffset() + Transport.ACK_NUM_OFFSET);
+	}
+
+	/**
+	 * @return Where the data starts in the array: the payload of a DATA packet,
+	 *         and past the ACK number and the options of a DATA_ACK packet
+	 */
+	public int getDataOffset() {
+		if (this.getType() != Transport.DATA_ACK) {
+			return this.getPayloadOffset();
+		}
+		return this.optionsOffset() + (this.buf[this.getPayloadOffset() + Transport.ACK_OPTIONS_LENGTH_OFFSET] & 0xFF);
+	}
+
+	/**
+	 * @return The number of data bytes of a DATA or DATA_ACK packet
+	 */
+	public int getDataLength() {
+		return this.getPayloadOffset() + this.getPayloadLength() - this.getDataOffset();
+	}
+
+	// where the options start in the array
+	private int optionsOffset() {
+		if (this.getType() != Transport.DATA_ACK) {
+			return this.getPayloadOffset();
+		}
+		return this.getPayloadOffset() + Transport.PIGGYBACK_HEADER_SIZE;
+	}
+
+	/**
+	 * Finds an option in the payload of a SYN or ACK packet, or among the
+	 * options of a DATA_ACK packet. See Transport. The payload of a DATA packet
+	 * is data, not options
+	 *
+	 * @param kind The kind of option
+	 * @return Where the option starts in the array, or -1 if the packet does not
+	 *         carry it
+	 */
+	public int findOption(int kind) {
+		int type = this.getType();
+		if (type == Transport.DATA) {
+			return -1;
+		}
+		int at = this.optionsOffset();
+		int end = (type == Transport.DATA_ACK) ? this.getDataOffset() : at + this.getPayloadLength();
+		while (at < end) {
+			int k = this.buf[at] & 0xFF;
+			if (k == Transport.OPTION_END) {
+				break;
+			}
+			if (k == Transport.OPTION_NOP) {
+				at++;
+				continue;
+			}
+			if (at + 1 >= end) {
+				break;
+			}
+			int length = this.buf[at + 1] & 0xFF;
+			if (length < 2 || at + length > end) {
+				break; // malformed, ignore the rest
+			}
+			if (k == kind) {
+				return at;
+			}
+			at += length;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param at Where an option starts, as returned by findOption
+	 * @return The length of the option, kind and length bytes included
+	 */
+	public int getOptionLength(int at) {
+		return this.buf[at + 1] & 0xFF;
+	}
+
+	/**
+	 * @return A copy of the payload
+	 */
+	public byte[] copyPayload() {
+		byte[] payload = new byte[this.getPayloadLength()];
+		System.arraycopy(this.buf, this.getPayloadOffset(), payload, 0, payload.length);
+		return payload;
+	}
+}
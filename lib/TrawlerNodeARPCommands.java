@@ -40,6 +40,10 @@ public class TrawlerNodeARPCommands {
         cmd += " delay " + String.valueOf(options.getDelay());
         cmd += " bw " + String.valueOf(options.getBW());
         cmd += " bt " + String.valueOf(options.getBT());
+        // only when marking, so that nodes that do not know the option still accept the command
+        if (options.getECN() > 0) {
+            cmd += " ecn " + String.valueOf(options.getECN());
+        }
         return cmd;
     }
 
@@ -104,9 +108,11 @@ public class TrawlerNodeARPCommands {
      */
     public static boolean receiveAddNeighborOptions(String cmd, ArrayList<Object> data) {
         String[] args = cmd.split(" ");
-        if (args.length != 12 || !args[0].equals("add") ||
+        // the ecn option is left out by trawlers that do not know it
+        if ((args.length != 12 && args.length != 14) || !args[0].equals("add") ||
             !args[4].equals("lossRate") || !args[6].equals("delay") ||
-            !args[8].equals("bw") || !args[10].equals("bt")) {
+            !args[8].equals("bw") || !args[10].equals("bt") ||
+            (args.length == 14 && !args[12].equals("ecn"))) {
             return false;
         }
 
@@ -119,6 +125,9 @@ public class TrawlerNodeARPCommands {
             options.setDelay(Long.parseLong(args[7]));
             options.setBW(Integer.parseInt(args[9]));
             options.setBT(Long.parseLong(args[11]));
+            if (args.length == 14) {
+                options.setECN(Long.parseLong(args[13]));
+            }
             data.add(fishAddr);
             data.add(new EmulatorARPData(ipAddress,port, options));
             return true;
@@ -16,6 +16,29 @@ public class Utility {
 	return System.currentTimeMillis() * 1000;
     }
 
+    /**
+     * Write an int into a byte[] as 4 bytes, most significant byte first
+     * @param buf The array to write into
+     * @param off Where to write the first byte
+     * @param value The int to write
+     */
+    public static void writeInt(byte[] buf, int off, int value) {
+	buf[off] = (byte)(value >>> 24);
+	buf[off + 1] = (byte)(value >>> 16);
+	buf[off + 2] = (byte)(value >>> 8);
+	buf[off + 3] = (byte)value;
+    }
+
+    /**
+     * Read an int written by writeInt
+     * @param buf The array to read from
+     * @param off Where the first byte is
+     * @return The int
+     */
+    public static int readInt(byte[] buf, int off) {
+	return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
     /**
      * Convert a string to a byte[]
      * @param msg The string to convert
@@ -0,0 +1,158 @@
+// BBR: instead of backing off on loss, the sender keeps a model of the path: the bottleneck bandwidth,
+// the highest delivery rate of the last rounds, and the propagation delay, the lowest RTT lately (dMin)
+// It paces at the bottleneck bandwidth and keeps a couple of bandwidth-delay products in flight,
+// probing for more bandwidth every few rounds and for a lower RTT every few seconds
+public class BBR implements CongestionControl {
+
+	// parameters for BBR
+	private enum BBRMode {
+		STARTUP, DRAIN, PROBE_BW, PROBE_RTT
+	}
+
+	private final double bbr_high_gain = 2.885; // 2/ln(2): doubles the delivery rate every round in STARTUP
+	private final double bbr_cwnd_gain = 2.0;
+	private final double bbr_pacing_gains[] = { 1.25, 0.75, 1, 1, 1, 1, 1, 1 }; // the PROBE_BW cycle, a dMin each
+	private final int bbr_bw_rounds = 10; // the bottleneck bandwidth is the max over this many rounds
+	private final long bbr_min_rtt_expiry = 10000; // ms before dMin is measured again in PROBE_RTT
+	private final long bbr_probe_rtt_time = 200; // ms spent at bbr_min_cwnd in PROBE_RTT
+	private final double bbr_min_cwnd = 4;
+	private double cwnd = 1.0;
+	private BBRMode bbr_mode = BBRMode.STARTUP;
+	private double bbr_pacing_gain = bbr_high_gain;
+	private double bbr_gain = bbr_high_gain; // the current cwnd gain
+	private long bbr_round = 0; // round trips so far
+	private long bbr_next_round_delivered = 0; // the round ends once a segment sent after this is ACKed
+	private double bbr_round_bw[] = new double[bbr_bw_rounds]; // max delivery rate of the last rounds, bytes/ms
+	private double bbr_btl_bw = 0; // bytes/ms
+	private double dMin = 0; // the propagation delay
+	private long bbr_min_rtt_stamp = 0; // when dMin was last set
+	private long bbr_rtt = 0; // the RTT sample of the ACK, 0 if it gave none
+	private boolean bbr_full_pipe = false;
+	private double bbr_full_bw = 0;
+	private int bbr_full_bw_rounds = 0; // rounds in STARTUP without the bandwidth growing by a quarter
+	private int bbr_cycle = 0;
+	private long bbr_cycle_stamp = 0;
+	private long bbr_probe_rtt_done = 0;
+	private double bbr_prior_cwnd = 0;
+
+	public double getCwnd() {
+		return cwnd;
+	}
+
+	public void onRttSample(long sampleRTT, long estRTT) {
+		bbr_rtt = Math.max(1, sampleRTT); // a sample under 1 ms still counts
+	}
+
+	// update the model with an ACK for new data, and set cwnd from it
+	public void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight) {
+		// a round trip ends when a segment sent after the previous one ended is ACKed
+		boolean roundStart = false;
+		if (deliveredAtSend >= bbr_next_round_delivered) {
+			bbr_next_round_delivered = delivered;
+			bbr_round++;
+			bbr_round_bw[(int) (bbr_round % bbr_bw_rounds)] = 0;
+			roundStart = true;
+		}
+
+		// delivery rate: the bytes ACKed since the segment was sent, over the time since then
+		int slot = (int) (bbr_round % bbr_bw_rounds);
+		double rate = (double) (delivered - deliveredAtSend) / Math.max(1, now - sentTime);
+		bbr_round_bw[slot] = Math.max(bbr_round_bw[slot], rate);
+		bbr_btl_bw = 0;
+		for (double bw : bbr_round_bw)
+			bbr_btl_bw = Math.max(bbr_btl_bw, bw);
+
+		// propagation delay: the lowest RTT, until it is too old to trust. An ACK without a sample (the first
+		// one, or one for a resent segment) leaves it as it is, and there is nothing to expire before a sample
+		boolean minRttExpired = dMin > 0 && now - bbr_min_rtt_stamp > bbr_min_rtt_expiry;
+		if (bbr_rtt > 0 && (dMin == 0 || bbr_rtt <= dMin || minRttExpired)) {
+			dMin = bbr_rtt;
+			bbr_min_rtt_stamp = now;
+		}
+		bbr_rtt = 0; // the sample belongs to this ACK only
+
+		double bdp = bbr_btl_bw * dMin; // bytes
+
+		// the pipe is full once the bandwidth has not grown by a quarter in three rounds
+		if (bbr_mode == BBRMode.STARTUP && roundStart) {
+			if (bbr_btl_bw >= bbr_full_bw * 1.25) {
+				bbr_full_bw = bbr_btl_bw;
+				bbr_full_bw_rounds = 0;
+			} else if (++bbr_full_bw_rounds >= 3) {
+				bbr_full_pipe = true;
+				bbr_mode = BBRMode.DRAIN;
+				bbr_pacing_gain = 1.0 / bbr_high_gain;
+				bbr_gain = bbr_high_gain;
+			}
+		}
+		// then drain the queue STARTUP built
+		if (bbr_mode == BBRMode.DRAIN && inFlight <= bdp)
+			bbr_enter_probe_bw(now);
+		// every dMin, the next gain of the cycle. A phase below 1 ends as soon as the queue is gone
+		if (bbr_mode == BBRMode.PROBE_BW
+				&& (now - bbr_cycle_stamp > dMin || (bbr_pacing_gain < 1 && inFlight <= bdp))) {
+			bbr_cycle = (bbr_cycle + 1) % bbr_pacing_gains.length;
+			bbr_cycle_stamp = now;
+			bbr_pacing_gain = bbr_pacing_gains[bbr_cycle];
+		}
+		// an old dMin is measured again with almost nothing in flight
+		if (bbr_mode != BBRMode.PROBE_RTT && minRttExpired) {
+			bbr_prior_cwnd = cwnd;
+			bbr_mode = BBRMode.PROBE_RTT;
+			bbr_pacing_gain = 1;
+			bbr_gain = 1;
+			bbr_probe_rtt_done = 0;
+		}
+		if (bbr_mode == BBRMode.PROBE_RTT) {
+			if (bbr_probe_rtt_done == 0 && inFlight <= bbr_min_cwnd * Transport.MAX_PAYLOAD_SIZE) {
+				bbr_probe_rtt_done = now + bbr_probe_rtt_time;
+			} else if (bbr_probe_rtt_done != 0 && now >= bbr_probe_rtt_done) {
+				bbr_min_rtt_stamp = now;
+				cwnd = Math.max(cwnd, bbr_prior_cwnd);
+				if (bbr_full_pipe) {
+					bbr_enter_probe_bw(now);
+				} else {
+					bbr_mode = BBRMode.STARTUP;
+					bbr_pacing_gain = bbr_high_gain;
+					bbr_gain = bbr_high_gain;
+				}
+			}
+		}
+
+		// cwnd, in segments: grows by what was ACKed, up to the gain times the bandwidth-delay product
+		double target = Math.max(bbr_min_cwnd, bbr_gain * bdp / Transport.MAX_PAYLOAD_SIZE);
+		if (bbr_mode == BBRMode.PROBE_RTT) {
+			cwnd = Math.min(cwnd, bbr_min_cwnd);
+		} else if (bbr_full_pipe) {
+			cwnd = Math.min(cwnd + ackedSegments, target);
+		} else if (cwnd < target) {
+			cwnd += ackedSegments;
+		}
+		cwnd = Math.max(cwnd, bbr_min_cwnd);
+	}
+
+	private void bbr_enter_probe_bw(long now) {
+		bbr_mode = BBRMode.PROBE_BW;
+		bbr_gain = bbr_cwnd_gain;
+		bbr_cycle = 2; // start cruising, rather than probing right after DRAIN
+		bbr_cycle_stamp = now;
+		bbr_pacing_gain = bbr_pacing_gains[bbr_cycle];
+	}
+
+	// loss says little about the model
+	public void onLoss(long now) {
+	}
+
+	// only a timeout starts over from one segment, and the next ACKs grow cwnd back towards the model
+	public void onTimeout(long now) {
+		cwnd = 1;
+	}
+
+	// like losses, marks do not change the model
+	public void onCongestionExperienced(long now, double fraction) {
+	}
+
+	public double getPacingRate() {
+		return (bbr_btl_bw > 0) ? bbr_pacing_gain * bbr_btl_bw : 0;
+	}
+}
@@ -0,0 +1,37 @@
+// A congestion control algorithm for a TCPSock. Each socket has an instance of its own, holding the
+// algorithm's state and the congestion window. The socket calls the hooks from its ACK and retransmission
+// paths, and keeps at most getCwnd() segments in flight
+// Times are in milliseconds and amounts of data in bytes, unless said otherwise
+public interface CongestionControl {
+
+	// the congestion window, in segments
+	double getCwnd();
+
+	// an RTT sample from an ACK for new data, just before onAck for that ACK
+	// ACKs that cover a resent segment give none (Karn's algorithm)
+	// estRTT is the smoothed RTT, already updated with the sample
+	void onRttSample(long sampleRTT, long estRTT);
+
+	// an ACK for new data, taking ackedSegments segments out of flight
+	// sentTime and deliveredAtSend: when the last of them was sent, and the socket's delivered count then
+	// delivered: the bytes the receiver is known to hold so far, ACKed or SACKed
+	// inFlight: the bytes still in flight after the ACK
+	void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight);
+
+	// duplicate ACKs reported a loss, and what the receiver lacks is being resent
+	void onLoss(long now);
+
+	// no ACK came in time, and what is in flight is being resent
+	void onTimeout(long now);
+
+	// with ECN, once per window of data ACKed: fraction is the part of its segments that a link marked
+	// congestion experienced, 0 if none was
+	// By default a marked window is taken as a loss that did not happen
+	default void onCongestionExperienced(long now, double fraction) {
+		if (fraction > 0)
+			onLoss(now);
+	}
+
+	// the rate to pace segments at, in bytes per millisecond, or 0 if the algorithm leaves pacing to the socket
+	double getPacingRate();
+}
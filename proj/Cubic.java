@@ -0,0 +1,120 @@
+// CUBIC: after a loss, the window grows as a cubic function of the time since then, centered on the
+// window where the loss happened (W_lastmax), so that it is quickly regained and then carefully probed past
+// Starts with slow start, and is never slower than Reno would be (tcp_friendliness)
+public class Cubic implements CongestionControl {
+
+	private double cwnd = 1.0;
+	private double ssthresh = 64 * 1024;
+
+	// parameters for cubic
+	private boolean tcp_friendliness = true;
+	private double cubic_beta = 0.2;
+	private boolean fast_convergence = true;
+	private double cubic_C = 0.4;
+	private double W_lastmax = 0;
+	private double epoch_start = 0;
+	private double origin_point = 0;
+	private double dMin = 0; // the lowest estRTT
+	private double W_tcp = 0;
+	private double cubic_K = 0;
+	private double ack_cnt = 0;
+	private double cwnd_cnt = 1;
+
+	// cubic functions
+	private void cubic_reset() {
+		W_lastmax = 0;
+		epoch_start = 0;
+		origin_point = 0;
+		dMin = 0;
+		W_tcp = 0;
+		cubic_K = 0;
+		ack_cnt = 0;
+	}
+
+	private double cubic_update(long now) {
+
+		double cnt = 0;
+
+		ack_cnt += 1;
+		if (epoch_start <= 0) {
+			epoch_start = now;
+			if (cwnd <= W_lastmax) {
+				cubic_K = Math.cbrt((W_lastmax - cwnd) / cubic_C);
+				origin_point = W_lastmax;
+			} else {
+				cubic_K = 0;
+				origin_point = cwnd;
+			}
+			ack_cnt = 1;
+			W_tcp = cwnd;
+		}
+		double t = now + dMin - epoch_start;
+		double target = origin_point + cubic_C * Math.pow(t - cubic_K, 3);
+		if (target > cwnd) {
+			cnt = cwnd / (target - cwnd);
+		} else {
+			cnt = 100 * cwnd;
+		}
+		if (tcp_friendliness) {
+			return cubic_tcp_friendliness(cnt);
+		}
+		return cnt;
+	}
+
+	private double cubic_tcp_friendliness(double cnt) {
+		W_tcp = W_tcp + ((3 * cubic_beta) / (2 - cubic_beta)) * ack_cnt / cwnd;
+		ack_cnt = 0;
+		if (W_tcp > cwnd) {
+			double max_cnt = cwnd / (W_tcp - cwnd);
+			if (cnt > max_cnt)
+				return max_cnt;
+		}
+		return cnt;
+	}
+
+	public double getCwnd() {
+		return cwnd;
+	}
+
+	public void onRttSample(long sampleRTT, long estRTT) {
+		if (dMin != 0) {
+			dMin = Math.min(dMin, estRTT);
+		} else {
+			dMin = estRTT;
+		}
+	}
+
+	public void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight) {
+		if (cwnd <= ssthresh) {
+			cwnd += 1;
+		} else {
+			double cnt = cubic_update(now);
+			if (cwnd_cnt > cnt) {
+				cwnd += 1;
+				cwnd_cnt = 0;
+			} else {
+				cwnd_cnt += 1;
+			}
+		}
+	}
+
+	public void onLoss(long now) {
+		epoch_start = 0;
+		if (cwnd < W_lastmax && fast_convergence) {
+			W_lastmax = cwnd * (2.0 - cubic_beta) / 2.0;
+		} else {
+			W_lastmax = cwnd;
+		}
+		cwnd = cwnd * (1.0 - cubic_beta);
+		ssthresh = cwnd;
+	}
+
+	public void onTimeout(long now) {
+		onLoss(now);
+		cubic_reset();
+	}
+
+	public double getPacingRate() {
+		return 0;
+	}
+}
@@ -0,0 +1,49 @@
+// DCTCP: Reno's window growth, with a cut in proportion to how much of the data was marked congestion
+// experienced rather than a halving. dctcp_alpha follows the fraction of segments marked in each window
+// of data, and a window with marks takes cwnd down by dctcp_alpha / 2, so a queue that just crosses the
+// marking threshold costs a few segments of window. Needs ECN to see marks. Halves on loss like Reno
+public class DCTCP implements CongestionControl {
+
+	private final double dctcp_g = 1.0 / 16; // weight of the newest window in dctcp_alpha
+	private final double dctcp_min_cwnd = 2;
+
+	private double cwnd = 1.0;
+	private double ssthresh = 64 * 1024;
+	private double dctcp_alpha = 1.0; // the first window with marks halves cwnd, as a loss would
+
+	public double getCwnd() {
+		return cwnd;
+	}
+
+	public void onRttSample(long sampleRTT, long estRTT) {
+	}
+
+	public void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight) {
+		if (cwnd < ssthresh)
+			cwnd += ackedSegments; // slow start
+		else
+			cwnd += 1.0 / cwnd; // AI
+	}
+
+	public void onLoss(long now) {
+		ssthresh = Math.max(cwnd / 2.0, dctcp_min_cwnd);
+		cwnd = ssthresh;
+	}
+
+	public void onTimeout(long now) {
+		ssthresh = Math.max(cwnd / 2.0, dctcp_min_cwnd);
+		cwnd = 1.0;
+	}
+
+	public void onCongestionExperienced(long now, double fraction) {
+		dctcp_alpha = (1 - dctcp_g) * dctcp_alpha + dctcp_g * fraction;
+		if (fraction > 0) {
+			cwnd = Math.max(cwnd * (1 - dctcp_alpha / 2), dctcp_min_cwnd);
+			ssthresh = cwnd;
+		}
+	}
+
+	public double getPacingRate() {
+		return 0;
+	}
+}
@@ -9,8 +9,6 @@
  * @version 1.0
  */
 
-import java.lang.reflect.Method;
-
 /**
  * <p> A utility class for multi-threading in Fishnet </p>
  */
@@ -34,6 +32,11 @@ public class FishThread {
      */
     private Callback cb;
 
+    /**
+     * The timer that runs the callback, rescheduled after every execution
+     */
+    private Event timer;
+
     /**
      * Create a thread in a Fishnet node
      *
@@ -46,15 +49,7 @@ public class FishThread {
         this.node = node;
         this.addr = node.getAddr();
         this.interval = interval;
-
-        try {
-            Method method = Callback.getMethod("run", this, null);
-            this.cb = new Callback(method, this, null);
-        } catch (Exception e) {
-            // This should not happen
-            this.node.logError("failed to initialize a FishThread");
-            System.exit(1);
-        }
+        this.cb = new Callback(() -> this.run());
     }
 
     /**
@@ -124,6 +119,10 @@ public class FishThread {
         // no more execution if interval <= 0
         if (this.interval <= 0) return;
 
-        this.manager.addTimer(this.addr, this.interval, this.cb);
+        if (this.timer == null) {
+            this.timer = this.manager.addTimer(this.addr, this.interval, this.cb);
+        } else {
+            this.manager.rescheduleTimer(this.timer, this.interval);
+        }
     }
 }
@@ -0,0 +1,32 @@
+// No congestion control: the window stays at the size it is given
+public class FixedWindow implements CongestionControl {
+
+	private final double cwnd;
+
+	public FixedWindow(double cwnd) {
+		this.cwnd = cwnd;
+	}
+
+	public double getCwnd() {
+		return cwnd;
+	}
+
+	public void onRttSample(long sampleRTT, long estRTT) {
+	}
+
+	public void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight) {
+	}
+
+	public void onLoss(long now) {
+	}
+
+	public void onTimeout(long now) {
+	}
+
+	public void onCongestionExperienced(long now, double fraction) {
+	}
+
+	public double getPacingRate() {
+		return 0;
+	}
+}
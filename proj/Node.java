@@ -1,8 +1,8 @@
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Arrays;
 
 import java.io.PrintStream;
-import java.lang.reflect.Method;
 
 /**
  * <pre>
@@ -30,6 +30,7 @@ public class Node {
 	private Manager manager;
 	private int addr;
 	private ArrayList<PingRequest> pings; // To store PingRequests.
+	private Event pingTimer; // Rescheduled every PingTimeout to time out pings
 
 	// Fishnet reliable data transfer
 	// TCP manager
@@ -37,6 +38,9 @@ public class Node {
 
 	public int currentPacketSeq;
 
+	// Reused to read every packet this node receives in place
+	private PacketView received;
+
 	/**
 	 * Create a new node
 	 * 
@@ -51,6 +55,7 @@ public class Node {
 		// Fishnet reliable data transfer
 		this.tcpMan = new TCPManager(this, addr, manager);
 		this.currentPacketSeq = 0;
+		this.received = new PacketView();
 	}
 
 	/**
@@ -58,7 +63,7 @@ public class Node {
 	 */
 	public void start() {
 		logOutput("started");
-		this.addTimer(PingTimeout, "pingTimedOut");
+		this.pingTimer = this.addTimer(PingTimeout, () -> this.pingTimedOut());
 
 		// Fishnet reliable data transfer
 		// Start TCP manager
@@ -71,16 +76,41 @@ public class Node {
 	 * @param from The address of the node that has sent this packet
 	 * @param msg  The serialized form of the packet.
 	 */
-	public void onReceive(Integer from, byte[] msg) {
-		Packet packet = Packet.unpack(msg);
+	public void onReceive(int from, byte[] msg) {
+		this.onReceive(from, msg, msg.length);
+	}
+
+	/**
+	 * Called by the manager when a packet has arrived for this node. The array may
+	 * be reused once this returns, so anything kept from it must be copied
+	 * 
+	 * @param from The address of the node that has sent this packet
+	 * @param msg  The array holding the serialized form of the packet
+	 * @param len  The length of the packet
+	 */
+	public void onReceive(int from, byte[] msg, int len) {
+		PacketView packet = this.received.wrap(msg, 0, len);
 
 		// logOutput("received packet from " + from);
-		if (packet == null) {
-			logError("Unable to unpack message: " + Utility.byteArrayToString(msg) + " Received from " + from);
+		if (!packet.isValid()) {
+			logError("Unable to unpack message: " + Utility.byteArrayToString(Arrays.copyOf(msg, len))
+					+ " Received from " + from);
 			return;
 		}
 
-		this.receivePacket(from.intValue(), packet);
+		// TCP segments are read in place, other packets are unpacked
+		if (packet.getProtocol() == Protocol.TRANSPORT_PKT) {
+			this.receiveTCPPacket(packet);
+			return;
+		}
+		this.receivePacket(from, Packet.unpack(Arrays.copyOf(msg, len)));
+	}
+
+	/**
+	 * Boxed form of onReceive, kept for callbacks that look the method up by name
+	 */
+	public void onReceive(Integer from, byte[] msg) {
+		this.onReceive(from.intValue(), msg);
 	}
 
 	/**
@@ -127,7 +157,7 @@ public class Node {
 				}
 			}
 		}
-		this.addTimer(PingTimeout, "pingTimedOut");
+		this.manager.rescheduleTimer(this.pingTimer, PingTimeout);
 		//logOutput("timer times out!");
 	}
 
@@ -162,18 +192,13 @@ public class Node {
 			case Protocol.PING_REPLY_PKT:
 				this.receivePingReply(packet);
 				break;
-			
-			// For TCP
-			case Protocol.TRANSPORT_PKT:
-				this.receiveTCPPacket(packet);
-				break;
 			default:
 				logError("Packet with unknown protocol received. Protocol: " + packet.getProtocol());
 		}
 	}
 
 	// receive a TCP packet
-	private void receiveTCPPacket(Packet packet) {
+	private void receiveTCPPacket(PacketView packet) {
 		//logOutput("Received TCP from " + packet.getSrc());
 		tcpMan.onReceive(packet);
 	}
@@ -216,22 +241,16 @@ public class Node {
 
 	private void send(int destAddr, Packet packet) {
 		try {
-			this.manager.sendPkt(this.addr, destAddr, packet.pack());
+			this.manager.sendPkt(this.addr, destAddr, packet);
 		} catch (IllegalArgumentException e) {
 			logError("Exception: " + e);
 		}
 	}
 
-	// Adds a timer, to fire in deltaT milliseconds, with a callback to a public
-	// function of this class that takes no parameters
-	private void addTimer(long deltaT, String methodName) {
-		try {
-			Method method = Callback.getMethod(methodName, this, null);
-			Callback cb = new Callback(method, this, null);
-			this.manager.addTimer(this.addr, deltaT, cb);
-		} catch (Exception e) {
-			logError("Failed to add timer callback. Method Name: " + methodName + "\nException: " + e);
-		}
+	// Adds a timer, to fire in deltaT milliseconds, with a callback to the given task
+	// Returns a handle that can be used to cancel or reschedule the timer
+	private Event addTimer(long deltaT, Callback.Task task) {
+		return this.manager.addTimer(this.addr, deltaT, new Callback(task));
 	}
 
 	// Fishnet reliable data transfer
@@ -268,7 +287,7 @@ public class Node {
 
 	private boolean matchTransferCommand(String command) {
 		// transfer command syntax:
-		// transfer dest port localPort amount [interval sz]
+		// transfer dest port localPort amount [interval sz] [options]
 		// Synopsis:
 		// Connect to a transfer server listening on port <port> at node
 		// <dest>, using local port <localPort>, and transfer <amount> bytes.
@@ -280,24 +299,77 @@ public class Node {
 		// Optional arguments:
 		// interval: execution interval of the transfer client, default 1 second
 		// sz: buffer size of the transfer client, default 65536
+		// options: words after the numbers, any of
+		// pace: spread the segments of each window over the round trip
+		// reno, cubic, bbr, vegas, dctcp: the congestion control algorithm, default reno. bbr always paces
+		// ecn: offer explicit congestion notification, for edges that mark (see the ecn edge option). dctcp needs it
+		// echo: read the bytes back from a server that echoes them (see the server command), and close once all have
+		// delack: delay ACKs, for the bytes echoed
+		// nagle: hold small segments while data is in flight, so that small writes go out together
+		// cork: write in bulk, sending full segments only until everything is written
 		String[] args = command.split(" ");
-		if (args.length < 5 || args.length > 7 || !args[0].equals("transfer")) {
+		int numbers = 1; // args[1...numbers-1] are numbers, the rest are options
+		while (numbers < args.length && isInteger(args[numbers])) {
+			numbers++;
+		}
+		if (numbers < 5 || numbers > 7 || !args[0].equals("transfer")) {
 			return false;
 		}
+		boolean pace = false;
+		boolean ecn = false;
+		boolean echo = false;
+		boolean delack = false;
+		boolean nagle = false;
+		boolean cork = false;
+		TCPSock.CCALGO ccAlgo = TCPSock.CCALGO.RENO;
+		for (int i = numbers; i < args.length; i++) {
+			if (args[i].equals("pace")) {
+				pace = true;
+			} else if (args[i].equals("reno")) {
+				ccAlgo = TCPSock.CCALGO.RENO;
+			} else if (args[i].equals("cubic")) {
+				ccAlgo = TCPSock.CCALGO.CUBIC;
+			} else if (args[i].equals("bbr")) {
+				ccAlgo = TCPSock.CCALGO.BBR;
+			} else if (args[i].equals("vegas")) {
+				ccAlgo = TCPSock.CCALGO.VEGAS;
+			} else if (args[i].equals("dctcp")) {
+				ccAlgo = TCPSock.CCALGO.DCTCP;
+			} else if (args[i].equals("ecn")) {
+				ecn = true;
+			} else if (args[i].equals("echo")) {
+				echo = true;
+			} else if (args[i].equals("delack")) {
+				delack = true;
+			} else if (args[i].equals("nagle")) {
+				nagle = true;
+			} else if (args[i].equals("cork")) {
+				cork = true;
+			} else {
+				logError("Unknown transfer option: " + args[i]);
+				return false;
+			}
+		}
 
 		try {
 			int destAddr = Integer.parseInt(args[1]);
 			int port = Integer.parseInt(args[2]);
 			int localPort = Integer.parseInt(args[3]);
 			int amount = Integer.parseInt(args[4]);
-			long interval = args.length >= 6 ? Integer.parseInt(args[5]) : TransferClient.DEFAULT_CLIENT_INTERVAL;
-			int sz = args.length == 7 ? Integer.parseInt(args[6]) : TransferClient.DEFAULT_BUFFER_SZ;
+			long interval = numbers >= 6 ? Integer.parseInt(args[5]) : TransferClient.DEFAULT_CLIENT_INTERVAL;
+			int sz = numbers == 7 ? Integer.parseInt(args[6]) : TransferClient.DEFAULT_BUFFER_SZ;
 
 			TCPSock sock = this.tcpMan.socket();
 			sock.bind(localPort);
-			sock.setCcAlgorithm(TCPSock.CCALGO.RENO); // choose CC algo to use
+			sock.setCcAlgorithm(ccAlgo); // choose CC algo to use
+			sock.setPacing(pace);
+			sock.setEcn(ecn);
+			sock.setDelayedAck(delack);
+			sock.setNoDelay(!nagle);
 			sock.connect(destAddr, port);
 			TransferClient client = new TransferClient(manager, this, sock, amount, interval, sz);
+			client.setEcho(echo);
+			client.setCork(cork);
 			client.start();
 
 			return true;
@@ -308,9 +380,18 @@ public class Node {
 		return false;
 	}
 
+	private static boolean isInteger(String s) {
+		try {
+			Integer.parseInt(s);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	private boolean matchServerCommand(String command) {
 		// server command syntax:
-		// server port backlog [servint workint sz]
+		// server port backlog [servint workint sz] [options]
 		// Synopsis:
 		// Start a transfer server at the local node, listening on port
 		// <port>. The server has a maximum pending (incoming) connection
@@ -322,22 +403,61 @@ public class Node {
 		// servint: execution interval of the transfer server, default 1 second
 		// workint: execution interval of the transfer worker, default 1 second
 		// sz: buffer size of the transfer worker, default 65536
+		// options: words after the numbers, any of
+		// delack: delay ACKs, so that most of them cover two segments
+		// echo: write every byte received back to the client, on the same connection
+		// reno, cubic, bbr, vegas, dctcp: the congestion control algorithm for the bytes echoed, default reno
+		// nagle: hold small segments of the bytes echoed while data is in flight
 		String[] args = command.split(" ");
-		if (args.length < 3 || args.length > 6 || !args[0].equals("server")) {
+		int numbers = 1; // args[1...numbers-1] are numbers, the rest are options
+		while (numbers < args.length && isInteger(args[numbers])) {
+			numbers++;
+		}
+		if (numbers < 3 || numbers > 6 || !args[0].equals("server")) {
 			return false;
 		}
+		boolean delack = false;
+		boolean echo = false;
+		boolean nagle = false;
+		TCPSock.CCALGO ccAlgo = TCPSock.CCALGO.RENO;
+		for (int i = numbers; i < args.length; i++) {
+			if (args[i].equals("delack")) {
+				delack = true;
+			} else if (args[i].equals("echo")) {
+				echo = true;
+			} else if (args[i].equals("nagle")) {
+				nagle = true;
+			} else if (args[i].equals("reno")) {
+				ccAlgo = TCPSock.CCALGO.RENO;
+			} else if (args[i].equals("cubic")) {
+				ccAlgo = TCPSock.CCALGO.CUBIC;
+			} else if (args[i].equals("bbr")) {
+				ccAlgo = TCPSock.CCALGO.BBR;
+			} else if (args[i].equals("vegas")) {
+				ccAlgo = TCPSock.CCALGO.VEGAS;
+			} else if (args[i].equals("dctcp")) {
+				ccAlgo = TCPSock.CCALGO.DCTCP;
+			} else {
+				logError("Unknown server option: " + args[i]);
+				return false;
+			}
+		}
 
 		try {
 			int port = Integer.parseInt(args[1]);
 			int backlog = Integer.parseInt(args[2]);
-			long servint = args.length >= 4 ? Integer.parseInt(args[3]) : TransferServer.DEFAULT_SERVER_INTERVAL;
-			long workint = args.length >= 5 ? Integer.parseInt(args[4]) : TransferServer.DEFAULT_WORKER_INTERVAL;
-			int sz = args.length == 6 ? Integer.parseInt(args[5]) : TransferServer.DEFAULT_BUFFER_SZ;
+			long servint = numbers >= 4 ? Integer.parseInt(args[3]) : TransferServer.DEFAULT_SERVER_INTERVAL;
+			long workint = numbers >= 5 ? Integer.parseInt(args[4]) : TransferServer.DEFAULT_WORKER_INTERVAL;
+			int sz = numbers == 6 ? Integer.parseInt(args[5]) : TransferServer.DEFAULT_BUFFER_SZ;
 			TCPSock sock = this.tcpMan.socket();
 			sock.bind(port);
+			sock.setDelayedAck(delack);
+			sock.setCcAlgorithm(ccAlgo);
+			sock.setNoDelay(!nagle);
 			sock.listen(backlog);
 
 			TransferServer server = new TransferServer(manager, this, sock, servint, workint, sz);
+			server.setEcho(echo);
 			server.start();
 			logOutput("server started, port = " + port);
 
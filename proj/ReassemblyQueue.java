@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+// The out-of-order data held in a receive window, as a sorted list of disjoint byte ranges
+// The bytes themselves stay in the window: this only records which ranges past the next expected byte
+// have arrived, so that they can be made readable in one step once the gap before them is filled
+// Ranges are in window pointers (see TCPSock.writePointer), and are kept in primitive arrays
+// The sender keeps one too, as its SACK scoreboard: the ranges of its write window the receiver holds
+public class ReassemblyQueue {
+
+	private long starts[];
+	private long ends[]; // exclusive
+	private int count;
+
+	public ReassemblyQueue() {
+		starts = new long[8];
+		ends = new long[8];
+		count = 0;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	// number of disjoint ranges held
+	public int size() {
+		return count;
+	}
+
+	// the i-th range, in increasing order
+	public long start(int i) {
+		return starts[i];
+	}
+
+	public long end(int i) {
+		return ends[i];
+	}
+
+	// Record that [start, end) has arrived, merging it with the ranges it overlaps or touches
+	// Returns the number of bytes that were not held before
+	public long add(long start, long end) {
+		if (start >= end)
+			return 0;
+		long held = 0; // bytes of the merged ranges
+
+		// first range that ends at or after start: everything before it is left alone
+		int first = 0;
+		while (first < count && ends[first] < start)
+			first++;
+		// ranges first..last-1 overlap or touch [start, end) and are merged into it
+		int last = first;
+		while (last < count && starts[last] <= end) {
+			held += ends[last] - starts[last];
+			start = Math.min(start, starts[last]);
+			end = Math.max(end, ends[last]);
+			last++;
+		}
+
+		if (last == first) {
+			// a new range at first
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * count);
+				ends = Arrays.copyOf(ends, 2 * count);
+			}
+			System.arraycopy(starts, first, starts, first + 1, count - first);
+			System.arraycopy(ends, first, ends, first + 1, count - first);
+			count++;
+		} else if (last > first + 1) {
+			// several ranges become one
+			System.arraycopy(starts, last, starts, first + 1, count - last);
+			System.arraycopy(ends, last, ends, first + 1, count - last);
+			count -= last - first - 1;
+		}
+		starts[first] = start;
+		ends[first] = end;
+		return (end - start) - held;
+	}
+
+	// Drop the ranges that are contiguous with the data before next, and return the end of the data
+	// that is now contiguous: next itself if the gap after it is still open
+	public long advance(long next) {
+		int n = 0;
+		while (n < count && starts[n] <= next) {
+			next = Math.max(next, ends[n]);
+			n++;
+		}
+		if (n > 0) {
+			System.arraycopy(starts, n, starts, 0, count - n);
+			System.arraycopy(ends, n, ends, 0, count - n);
+			count -= n;
+		}
+		return next;
+	}
+
+	// Whether [start, end) lies within one range
+	public boolean covers(long start, long end) {
+		for (int i = 0; i < count && starts[i] <= start; i++) {
+			if (end <= ends[i])
+				return true;
+		}
+		return false;
+	}
+
+	// Forget everything before pointer, and return the number of bytes that were held there
+	public long removeBefore(long pointer) {
+		long removed = 0;
+		int n = 0;
+		while (n < count && ends[n] <= pointer) {
+			removed += ends[n] - starts[n];
+			n++;
+		}
+		if (n > 0) {
+			System.arraycopy(starts, n, starts, 0, count - n);
+			System.arraycopy(ends, n, ends, 0, count - n);
+			count -= n;
+		}
+		if (count > 0 && starts[0] < pointer) {
+			removed += pointer - starts[0];
+			starts[0] = pointer;
+		}
+		return removed;
+	}
+}
@@ -0,0 +1,28 @@
+// Reno: AIMD. The window grows by about one segment per round trip, and halves on every loss
+public class Reno implements CongestionControl {
+
+	private double cwnd = 1.0;
+
+	public double getCwnd() {
+		return cwnd;
+	}
+
+	public void onRttSample(long sampleRTT, long estRTT) {
+	}
+
+	public void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight) {
+		cwnd += 1.0 / cwnd; // AI
+	}
+
+	public void onLoss(long now) {
+		cwnd /= 2.0; // MD
+	}
+
+	public void onTimeout(long now) {
+		cwnd /= 2.0;
+	}
+
+	public double getPacingRate() {
+		return 0;
+	}
+}
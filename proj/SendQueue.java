@@ -0,0 +1,109 @@
+// The segments a sender has in flight, oldest first, in a ring of parallel primitive arrays
+// Each segment is known by the sequence number past its last byte (the ACK that covers it),
+// and carries the time it was first sent, in microseconds, the number of times it has been resent, and the
+// number of bytes the connection had delivered when it was sent, to measure the delivery rate with once it is ACKed
+// Segments are added in sequence order, and removed from the front as they are ACKed
+public class SendQueue {
+
+	private int ends[];
+	private long sentTimes[];
+	private int retransmits[];
+	private long delivered[];
+	private int head; // index of the oldest segment
+	private int count;
+
+	public SendQueue() {
+		ends = new int[32];
+		sentTimes = new long[32];
+		retransmits = new int[32];
+		delivered = new long[32];
+		head = 0;
+		count = 0;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	// Add a segment after the others
+	public void add(int endSeq, long sentTime, long deliveredBytes) {
+		if (count == ends.length)
+			grow();
+		int i = slot(count);
+		ends[i] = endSeq;
+		sentTimes[i] = sentTime;
+		retransmits[i] = 0;
+		delivered[i] = deliveredBytes;
+		count++;
+	}
+
+	// the i-th segment, 0 being the oldest
+	public int end(int i) {
+		return ends[slot(i)];
+	}
+
+	public long sentTime(int i) {
+		return sentTimes[slot(i)];
+	}
+
+	public int retransmits(int i) {
+		return retransmits[slot(i)];
+	}
+
+	public long delivered(int i) {
+		return delivered[slot(i)];
+	}
+
+	public void markRetransmitted(int i) {
+		retransmits[slot(i)]++;
+	}
+
+	// Index of the segment that ends at seq, or -1 if no segment in flight does
+	// Only the segments before it are looked at, so this costs as much as ACKing them
+	public int indexOf(int seq) {
+		for (int i = 0; i < count; i++) {
+			int d = end(i) - seq; // compared as a difference, so that sequence numbers may wrap
+			if (d == 0)
+				return i;
+			if (d > 0)
+				break;
+		}
+		return -1;
+	}
+
+	// Remove the n oldest segments
+	public void removeFirst(int n) {
+		head = slot(n);
+		count -= n;
+	}
+
+	private int slot(int i) {
+		return (head + i) & (ends.length - 1);
+	}
+
+	private void grow() {
+		int n = ends.length;
+		ends = unroll(ends, new int[2 * n]);
+		sentTimes = unroll(sentTimes, new long[2 * n]);
+		retransmits = unroll(retransmits, new int[2 * n]);
+		delivered = unroll(delivered, new long[2 * n]);
+		head = 0;
+	}
+
+	// copy a full ring to the front of a larger array, oldest first
+	private int[] unroll(int ring[], int to[]) {
+		System.arraycopy(ring, head, to, 0, ring.length - head);
+		System.arraycopy(ring, 0, to, ring.length - head, head);
+		return to;
+	}
+
+	private long[] unroll(long ring[], long to[]) {
+		System.arraycopy(ring, head, to, 0, ring.length - head);
+		System.arraycopy(ring, 0, to, ring.length - head, head);
+		return to;
+	}
+}
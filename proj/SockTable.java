@@ -0,0 +1,137 @@
+// A hash table of sockets, keyed by their four-tuple packed into a long (see key)
+// Open addressing with linear probing over primitive arrays, so looking up a socket does not allocate
+// Sockets with the same four-tuple are chained through TCPSock.sameKey in the order they were added,
+// and get returns the first of them, as a scan of the sockets in that order would
+public class SockTable {
+
+	private long keys[];
+	private TCPSock socks[]; // null marks an empty slot
+	private int size; // number of slots in use
+
+	public SockTable() {
+		keys = new long[16];
+		socks = new TCPSock[16];
+		size = 0;
+	}
+
+	// Pack a four-tuple into a key. Addresses and ports are one byte on the wire,
+	// or -1 when not set, so 16 bits each keeps them apart
+	public static long key(int localAddr, int localPort, int remoteAddr, int remotePort) {
+		return ((long) (localAddr & 0xFFFF) << 48) | ((long) (localPort & 0xFFFF) << 32)
+				| ((long) (remoteAddr & 0xFFFF) << 16) | (long) (remotePort & 0xFFFF);
+	}
+
+	private static long key(TCPSock sock) {
+		return key(sock.localAddr, sock.localPort, sock.remoteAddr, sock.remotePort);
+	}
+
+	// The first socket added with this four-tuple, or null
+	public TCPSock get(int localAddr, int localPort, int remoteAddr, int remotePort) {
+		int i = find(key(localAddr, localPort, remoteAddr, remotePort));
+		return (i < 0) ? null : socks[i];
+	}
+
+	public boolean contains(int localAddr, int localPort, int remoteAddr, int remotePort) {
+		return find(key(localAddr, localPort, remoteAddr, remotePort)) >= 0;
+	}
+
+	// Add a socket under its current four-tuple. It must be removed before the four-tuple changes
+	public void add(TCPSock sock) {
+		sock.sameKey = null;
+		long key = key(sock);
+		int i = find(key);
+		if (i >= 0) {
+			// same four-tuple: after the sockets already there
+			TCPSock last = socks[i];
+			while (last.sameKey != null)
+				last = last.sameKey;
+			last.sameKey = sock;
+			return;
+		}
+
+		if (2 * (size + 1) > socks.length)
+			resize(2 * socks.length);
+		i = slot(key);
+		while (socks[i] != null)
+			i = (i + 1) & (socks.length - 1);
+		keys[i] = key;
+		socks[i] = sock;
+		size++;
+	}
+
+	// Remove a socket. Returns false if it is not in the table
+	public boolean remove(TCPSock sock) {
+		int i = find(key(sock));
+		if (i < 0)
+			return false;
+
+		if (socks[i] == sock) {
+			if (sock.sameKey != null)
+				socks[i] = sock.sameKey;
+			else
+				deleteSlot(i);
+		} else {
+			TCPSock prev = socks[i];
+			while (prev.sameKey != null && prev.sameKey != sock)
+				prev = prev.sameKey;
+			if (prev.sameKey == null)
+				return false;
+			prev.sameKey = sock.sameKey;
+		}
+		sock.sameKey = null;
+		return true;
+	}
+
+	/* hashing */
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (socks.length - 1);
+	}
+
+	// index of the slot holding key, or -1
+	private int find(long key) {
+		int mask = socks.length - 1;
+		for (int i = slot(key); socks[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return i;
+		}
+		return -1;
+	}
+
+	// empty slot i, and move back later entries of its probe run so that none of them becomes unreachable
+	private void deleteSlot(int i) {
+		int mask = socks.length - 1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (socks[j] == null)
+				break;
+			int k = slot(keys[j]);
+			// the entry at j stays if its home slot k lies cyclically in (i, j]
+			if ((i <= j) ? (i < k && k <= j) : (i < k || k <= j))
+				continue;
+			keys[i] = keys[j];
+			socks[i] = socks[j];
+			i = j;
+		}
+		socks[i] = null;
+		size--;
+	}
+
+	private void resize(int capacity) {
+		long oldKeys[] = keys;
+		TCPSock oldSocks[] = socks;
+		keys = new long[capacity];
+		socks = new TCPSock[capacity];
+		for (int j = 0; j < oldSocks.length; j++) {
+			if (oldSocks[j] == null)
+				continue;
+			int i = slot(oldKeys[j]);
+			while (socks[i] != null)
+				i = (i + 1) & (capacity - 1);
+			keys[i] = oldKeys[j];
+			socks[i] = oldSocks[j];
+		}
+	}
+}
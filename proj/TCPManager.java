@@ -12,9 +12,6 @@
  * @version 1.0
  */
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
 public class TCPManager {
 	private Node node;
 	private int addr;
@@ -22,13 +19,53 @@ public class TCPManager {
 
 	// private static final byte dummy[] = new byte[0];
 
-	private ArrayList<TCPSock> sockets;
+	// the registered sockets: connection sockets by their four-tuple,
+	// welcome sockets (remote address and port both -1) by local address and port
+	private SockTable connections;
+	private SockTable listeners;
+
+	// reused to read the header of every incoming segment without unpacking it
+	private TransportView header;
+
+	// reused by this node's sockets to build every outgoing segment
+	private SegmentBuilder segments;
 
 	public TCPManager(Node node, int addr, Manager manager) {
 		this.node = node;
 		this.addr = addr;
 		this.manager = manager;
-		sockets = new ArrayList<>();
+		connections = new SockTable();
+		listeners = new SockTable();
+		header = new TransportView();
+		segments = new SegmentBuilder();
+	}
+
+	// The builder for outgoing segments. Set both headers before every use
+	public SegmentBuilder segmentBuilder() {
+		return segments;
+	}
+
+	// Send a segment without payload. It is built in a pooled buffer, which the manager releases
+	public void sendSegment(int from, int to, int srcPort, int destPort, int type, int window, int seq) {
+		sendSegment(from, to, srcPort, destPort, type, window, seq, null, 0);
+	}
+
+	// Send a SYN or ACK segment carrying the first optionsLength bytes of options (see Transport)
+	public void sendSegment(int from, int to, int srcPort, int destPort, int type, int window, int seq,
+			byte options[], int optionsLength) {
+		byte segment[] = manager.acquireBuffer(SegmentBuilder.segmentLength(optionsLength));
+		boolean handedOver = false; // to the manager, which releases the buffer from then on
+		try {
+			int len = segments.network(to, from, Packet.MAX_TTL, Protocol.TRANSPORT_PKT, node.currentPacketSeq++)
+					.transport(srcPort, destPort, type, window, seq).writeTo(segment, 0, optionsLength);
+			if (optionsLength > 0)
+				System.arraycopy(options, 0, segment, SegmentBuilder.PAYLOAD_OFFSET, optionsLength);
+			handedOver = true;
+			manager.sendPooledPkt(from, to, segment, len);
+		} finally {
+			if (!handedOver)
+				manager.releaseBuffer(segment);
+		}
 	}
 
 	/**
@@ -54,65 +91,48 @@ public class TCPManager {
 
 	// Find the socket that has the best match
 	public TCPSock findBestMatch(int destAddr, int destPort, int srcAddr, int srcPort) {
-		
-		Iterator<TCPSock> iter = sockets.iterator();
-		
+
 		// First, try to find the exact match
-		while(iter.hasNext()) {
-			TCPSock current = iter.next();
-			if(current.localAddr == destAddr &&
-				current.localPort == destPort && 
-				current.remoteAddr == srcAddr &&
-				current.remotePort == srcPort)
-				return current;
-		}
-		
-		// Second, try to find welcome socket (i.e., destX both are -1)
-		Iterator<TCPSock> iter2 = sockets.iterator();
-		while(iter2.hasNext()) {
-			TCPSock current = iter2.next();
-			if(current.localAddr == destAddr &&
-				current.localPort == destPort && 
-				current.remoteAddr == -1 &&
-				current.remotePort == -1)
-				return current;
-		}
+		TCPSock exact = connections.get(destAddr, destPort, srcAddr, srcPort);
+		if (exact != null)
+			return exact;
 
+		// Second, try to find welcome socket (i.e., destX both are -1)
 		// Finally, return null
-		return null;
+		return listeners.get(destAddr, destPort, -1, -1);
+	}
+
+	// the table a socket with this remote address and port belongs to
+	private SockTable tableFor(int remoteAddr, int remotePort) {
+		return (remoteAddr == -1 && remotePort == -1) ? listeners : connections;
 	}
-	
+
 	// isUsed and registerSock are used by bind in TCPSock
 	// Test whether the same setting is used by other sockets currently
 	public boolean isUsed(int localAddr, int localPort, int remoteAddr, int remotePort) {
-		Iterator<TCPSock> iter = sockets.iterator();
-		
-		while(iter.hasNext()) {
-			TCPSock current = iter.next();
-			if(current.localAddr == localAddr &&
-				current.localPort == localPort && 
-				current.remoteAddr == remoteAddr &&
-				current.remotePort == remotePort)
-				return true;
-		}
-		
-		return false;
+		return tableFor(remoteAddr, remotePort).contains(localAddr, localPort, remoteAddr, remotePort);
 	}
 
-	// Append the new socket at the end
+	// Add the new socket under its current setting
+	// The socket must be unregistered before its setting changes
 	public void registerSock(TCPSock tcpSock) {
-		sockets.add(tcpSock);
+		tableFor(tcpSock.remoteAddr, tcpSock.remotePort).add(tcpSock);
 	}
 
-	// remove the socket
-	public void unregisterSock(TCPSock tcpSock) {
-		sockets.remove(tcpSock);
+	// remove the socket. Returns false if it was not registered
+	public boolean unregisterSock(TCPSock tcpSock) {
+		return tableFor(tcpSock.remoteAddr, tcpSock.remotePort).remove(tcpSock);
 	}
 
 	// When the manager receives a TCP packet
-	public void onReceive(Packet packet) {
+	// The packet is only valid during the call
+	public void onReceive(PacketView packet) {
 
-		Transport tcpPacket = Transport.unpack(packet.getPayload());
+		TransportView tcpPacket = packet.getTransport(header);
+		if (!tcpPacket.isWellFormed()) {
+			node.logError("Unable to unpack segment from " + packet.getSrc());
+			return;
+		}
 
 		int destPort = tcpPacket.getDestPort();
 		int srcPort = tcpPacket.getSrcPort();
@@ -132,12 +152,8 @@ public class TCPManager {
 			if(tcpPacket.getType() == Transport.FIN) return;
 
 			// send FIN, indicating connection refused
-			Transport connRefusePacket = new Transport(destPort, srcPort, Transport.FIN, 0, 0, new byte[0]);
-			byte connRefuseByte[] = connRefusePacket.pack();
-			Packet finPacket = new Packet(srcAddr, destAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-					node.currentPacketSeq++, connRefuseByte);
 			try {
-				manager.sendPkt(destAddr, srcAddr, finPacket.pack());
+				sendSegment(destAddr, srcAddr, destPort, srcPort, Transport.FIN, 0, 0);
 				TCPSock.out("F");
 			} catch (IllegalArgumentException e) {
 				node.logError("Exception: " + e);
@@ -146,7 +162,7 @@ public class TCPManager {
 		}
 		
 		// The responsible socket
-		bestSock.onReceive(packet);
+		bestSock.onReceive(packet, tcpPacket);
 
 	}
 
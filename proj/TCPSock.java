@@ -1,9 +1,5 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Random;
-import java.util.Iterator;
-
-import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
 
 /**
  * <p>
@@ -37,22 +33,39 @@ public class TCPSock {
 
 	private final long SYNTimeout = 1000; // resend SYN if timeout
 
-	private long DATATimeout = 1000; // resend Data if timeout. This field is calculated by estRTT and devRTT
-
-	// Estimated RTT to set up DATATimeout
-	private long estRTT = -1;
-	private long devRTT = -1;
+	// Retransmission timeout (RTO), as in RFC 6298, from RTT samples in microseconds
+	// Samples are only taken from ACKs that cover no resent segment, since they may be for either copy
+	// (Karn's algorithm), and every timeout doubles the RTO until the next sample
+	private long rto = 1000000; // resend Data if timeout, 1 second until the first sample
+	private long srtt = -1; // smoothed RTT, -1 before the first sample
+	private long rttvar = -1; // RTT variation
 	private final double alpha = 0.125;
 	private final double beta = 0.25;
-	// store the sample RTTs, key is the ACK seq, value is the data
-	// sent time
-	private HashMap<Integer, Long> sampleRTTs;
-
+	private final long MIN_RTO = 200000; // as Linux does: RFC 6298 asks for 1 second, too long for short links
+	private final long MAX_RTO = 60000000;
+	private final long CLOCK_GRANULARITY = 1000; // timers are set in milliseconds
+	private long estRTT = -1; // srtt in milliseconds, for pacing and congestion control
+	private long timeouts = 0;
+
+	// Persist: while the receiver's window is closed and nothing is in flight, a 1-byte probe is sent, and
+	// sent again with the interval doubling each time, until an ACK reports room. It is flow control, not
+	// congestion: the probe is not timed by the RTO, and touches neither cwnd, the RTO nor recovery
+	private boolean persisting = false;
+	private long persistInterval = 0; // ms until the next probe
 	private final long RECEIVETimeout = 60000; // nothing to receive for this amount of time, then release
 
 	private long receiveTime;
 
+	// timer handles, rescheduled in place so that a socket never has more than one of each pending
+	private Event synTimer; // resend SYN
+	private Event resendTimer; // resend data that has not been ACKed
+	private Event receiveTimer; // release if nothing is received
+	private Event paceTimer; // send the next paced segment
+	private Event ackTimer; // send a delayed ACK
+	private Event persistTimer; // probe a closed receive window
+
 	private State state;
+	private boolean closing = false; // SHUTDOWN by close, until the data written is ACKed
 
 	public int localPort;
 	public int localAddr;
@@ -63,21 +76,37 @@ public class TCPSock {
 	private Node node;
 	private Manager manager;
 
-	private int baseSeq; // random set initially for SYN
+	// Data flows both ways, each way numbered from the seq of the SYN + 1
+	private int baseSeq; // the first byte sent and not ACKed yet. Random set initially for SYN
+
+	private int sendSeq; // the next byte to send
 
-	private int sendSeq;
+	private int recvSeq; // the next byte expected from the peer
 
-	private ArrayList<Integer> seqNumbers;
+	// the segments sent and not ACKed yet, by the seq their ACK carries, with the time they were sent
+	private SendQueue inFlight;
 
 	private int backlog;
 
-	private ArrayList<TCPSock> connQ; // a connection queue for the welcome socket
+	private ArrayDeque<TCPSock> connQ; // a connection queue for the welcome socket
+	private SockTable pending; // the sockets in connQ, by their four-tuple
+
+	TCPSock sameKey; // the next socket with the same four-tuple in a SockTable
 
-	private byte readWindow[]; // window for read (at the server side)
+	private byte readWindow[]; // window for read, the data received from the peer
 
-	private final int BUFFER_SIZE = 32; // The size for readWindow and writeWindow
+	private final int BUFFER_SIZE = 32; // The default size for readWindow and writeWindow
 	// In the unit of Transport.MAX_PAYLOAD_SIZE
 
+	public static final int MAX_BUFFER_SIZE = 1 << 24; // The largest readWindow or writeWindow, in bytes
+
+	// Receive buffer autotuning: readWindow grows to hold twice what the application reads in a round trip.
+	// A round trip is taken as the time from advertising a window to receiving the data at its right edge
+	private boolean autoTune = false;
+	private boolean tuning = false; // a round trip is being measured
+	private long tuneRead; // readPointer when the measure started
+	private int tuneSeq; // the measure ends when recvSeq reaches this seq
+
 	// both pointers need to mod window.length when accessing window
 	// and both pointers are strictly increasing
 	// readPointer must always be less than or equal to writePointer
@@ -87,7 +116,43 @@ public class TCPSock {
 	private long readPointer; // read from (called by read())
 	private long writePointer; // write to (called by onReceive())
 
-	private byte writeWindow[]; // window for write (at the client side)
+	// segments that arrived ahead of recvSeq, already stored in readWindow past writePointer
+	// all of them lie within availableWindowSize() of writePointer
+	private ReassemblyQueue outOfOrder;
+
+	// Delayed ACKs: a segment that arrives in order is ACKed along with the next one, or DELAYED_ACK_TIMEOUT
+	// after it arrived if none follows, so that most ACKs cover two segments. Segments that arrive out of
+	// order or while a gap is open, and (with ECN) segments marked differently from the one before, are
+	// ACKed at once, so that the sender learns of losses and congestion without delay
+	// Once the peer sends data, every DATA segment sent to it carries an ACK too, which takes the place of the
+	// ACK pending if there is one. Data that arrives while there is data to send is ACKed that way if it can be
+	private boolean delayedAck = false;
+	private final long DELAYED_ACK_TIMEOUT = 40; // Linux's minimum. RFC 1122 allows up to 500
+	private int ackPending = 0; // segments received in order and not ACKed yet
+	private boolean lastCongestionExperienced = false; // whether the last DATA segment arrived marked
+
+	// Selective acknowledgment (SACK), negotiated on the SYN exchange
+	private boolean sackPermitted = true; // offer SACK on connect, accept it from a connecting peer
+	private boolean sack = false; // both sides agreed to use SACK
+	// sender: ranges of the write window past readSafeWPointer that the receiver reported holding
+	private ReassemblyQueue scoreboard;
+
+	// Explicit congestion notification (ECN), negotiated on the SYN exchange like SACK
+	// DATA is sent ECN-capable, so that a link that queues it for too long marks it instead of dropping it,
+	// and the receiver echoes the number of marked segments in its ACKs
+	private boolean ecnPermitted = false; // offer ECN on connect. A welcome socket accepts any offer
+	private boolean ecn = false; // both sides agreed to use ECN
+	private int ceReceived = 0; // receiver: DATA segments received marked congestion experienced
+	// sender: the count last echoed, and the segments marked and ACKed in the current window of data,
+	// which ends when ecnWindowEnd is ACKed
+	private int ceEchoed = 0;
+	private int ecnMarked = 0;
+	private int ecnAcked = 0;
+	private int ecnWindowEnd;
+
+	private byte options[]; // to build the options of SYN and ACK segments in
+
+	private byte writeWindow[]; // window for write, the data sent to the peer
 	// invariance:
 	// writeWPointer >= readWPointer >= readSafeWPointer
 	// (writeWPointer - readSafeWPointer) <= writeWindow.length
@@ -95,85 +160,50 @@ public class TCPSock {
 	private long writeWPointer; // always points to the first byte that write() is going to write
 	private long readSafeWPointer; // always points to the first byte that has not been ACKed yet
 
-	private double cwnd = 1.0;
-
-	private double ssthresh = 64 * 1024;
-
 	private int cwndCurrent = 0; // the current number of packets sent that has not been ACKed
 
+	// NewReno fast recovery, from the third duplicate ACK (or a timeout) until all the data sent before
+	// it is ACKed. Only the segments the receiver lacks are resent, one as recovery starts and one per
+	// partial ACK (or, with SACK, per duplicate ACK while holes are known). Every other duplicate ACK stands
+	// for a segment that left the network, and inflates the window by one so that new data keeps flowing.
+	// After a timeout, the window is never inflated: the sender goes on from the cwnd the timeout left
+	private boolean inRecovery = false;
+	private boolean recoveryFromTimeout = false; // recovery started from a timeout, not from duplicate ACKs
+	private int recover; // sendSeq when recovery started: an ACK up to it ends recovery
+	private int recoveryInflation = 0; // segments allowed in flight past cwnd during recovery
+
 	private int windowAvail = BUFFER_SIZE * Transport.MAX_PAYLOAD_SIZE; // ACK will set this field to indicate available
 																		// space in the client
-
-	private CCALGO ccAlgo; // 0 for Reno and 1 for Cubic
+	// the receiver accepts data up to baseSeq + windowAvail, in bytes. The window field is 32 bits wide,
+	// so any receive buffer up to MAX_BUFFER_SIZE is advertised as is, without scaling
+
+	private CongestionControl cc; // sets the congestion window, cc.getCwnd() segments
+	private Supplier<CongestionControl> ccFactory = Reno::new; // a new instance for each socket a welcome socket accepts
+
+	// Pacing: segments are spread over the round trip, at cwnd segments per estRTT, instead of being sent
+	// back to back. Slightly faster than that, so that pacing alone does not hold cwnd back
+	private boolean pacing = false;
+	private final double PACING_GAIN = 1.25;
+	private double nextSendTime = 0; // when the next paced segment may be sent, in milliseconds
+
+	// Small writes: with noDelay off (Nagle's algorithm), a segment shorter than the most a segment carries
+	// is only sent while nothing is in flight, so that what is written until the ACK comes goes out together.
+	// Corked, only full segments are sent, until the socket is uncorked or closed
+	private boolean noDelay = true;
+	private boolean corked = false;
+
+	// statistics
+	private long segmentsSent = 0; // DATA segments, the first time
+	private long segmentsResent = 0;
+	private long segmentsPaced = 0; // held back by pacing before they were sent
+	private long delivered = 0; // bytes the receiver is known to hold, ACKed or SACKed, to measure delivery rates with
+	private long segmentsReceived = 0; // DATA segments, each of which would have had an ACK of its own
+	private long acksSent = 0;
+	private long acksPiggybacked = 0; // ACKs carried by DATA segments instead, as DATA_ACK
+	private long ackTimeouts = 0; // delayed ACKs sent as the timer fired, an event each
 
 	public enum CCALGO {
-		RENO, CUBIC, NONE
-	}
-
-	// parameters for cubic
-	private boolean tcp_friendliness = true;
-	private double cubic_beta = 0.2;
-	private boolean fast_convergence = true;
-	private double cubic_C = 0.4;
-	private double W_lastmax = 0;
-	private double epoch_start = 0;
-	private double origin_point = 0;
-	private double dMin = 0;
-	private double W_tcp = 0;
-	private double cubic_K = 0;
-	private double ack_cnt = 0;
-	private double cwnd_cnt = 1;
-
-	// cubic functions
-	private void cubic_reset() {
-		W_lastmax = 0;
-		epoch_start = 0;
-		origin_point = 0;
-		dMin = 0;
-		W_tcp = 0;
-		cubic_K = 0;
-		ack_cnt = 0;
-	}
-
-	private double cubic_update() {
-
-		double cnt = 0;
-
-		ack_cnt += 1;
-		if (epoch_start <= 0) {
-			epoch_start = manager.now();
-			if (cwnd <= W_lastmax) {
-				cubic_K = Math.cbrt((W_lastmax - cwnd) / cubic_C);
-				origin_point = W_lastmax;
-			} else {
-				cubic_K = 0;
-				origin_point = cwnd;
-			}
-			ack_cnt = 1;
-			W_tcp = cwnd;
-		}
-		double t = manager.now() + dMin - epoch_start;
-		double target = origin_point + cubic_C * Math.pow(t - cubic_K, 3);
-		if (target > cwnd) {
-			cnt = cwnd / (target - cwnd);
-		} else {
-			cnt = 100 * cwnd;
-		}
-		if (tcp_friendliness) {
-			return cubic_tcp_friendliness(cnt);
-		}
-		return cnt;
-	}
-
-	private double cubic_tcp_friendliness(double cnt) {
-		W_tcp = W_tcp + ((3 * cubic_beta) / (2 - cubic_beta)) * ack_cnt / cwnd;
-		ack_cnt = 0;
-		if (W_tcp > cwnd) {
-			double max_cnt = cwnd / (W_tcp - cwnd);
-			if (cnt > max_cnt)
-				return max_cnt;
-		}
-		return cnt;
+		RENO, CUBIC, BBR, VEGAS, DCTCP, NONE
 	}
 
 	public TCPSock(TCPManager tcpMan, Node node, Manager manager, int localAddr) {
@@ -182,7 +212,7 @@ public class TCPSock {
 		this.manager = manager;
 
 		this.state = State.CLOSED;
-		this.ccAlgo = CCALGO.RENO;
+		this.cc = new Reno();
 
 		this.localAddr = localAddr;
 		this.localPort = -1; // not set yet
@@ -194,27 +224,30 @@ public class TCPSock {
 		this.readWindow = new byte[BUFFER_SIZE * Transport.MAX_PAYLOAD_SIZE];
 		this.readPointer = 0L;
 		this.writePointer = 0L;
+		this.outOfOrder = new ReassemblyQueue();
+		this.scoreboard = new ReassemblyQueue();
+		this.options = new byte[Transport.MAX_PAYLOAD_SIZE];
 
 		this.writeWindow = new byte[BUFFER_SIZE * Transport.MAX_PAYLOAD_SIZE];
 		this.readWPointer = 0L;
 		this.writeWPointer = 0L;
 		this.readSafeWPointer = 0L;
 
-		// used to store sample RTTs to estimate RTT and calculate time out
-		this.sampleRTTs = new HashMap<>();
+		// The sequence of execpted seq numbers that will be ACKed, also used to sample RTTs
+		this.inFlight = new SendQueue();
+	}
 
-		this.seqNumbers = new ArrayList<>(); // The sequence of execpted seq numbers that will be ACKed
+	// set a timer with a callback task to fire in deltaT milliseconds
+	// the handle of a previous timer for the same task is reused if there is one
+	private Event setTimer(Event timer, long deltaT, Callback.Task task) {
+		if (timer == null)
+			return this.manager.addTimer(localAddr, deltaT, new Callback(task));
+		this.manager.rescheduleTimer(timer, deltaT);
+		return timer;
 	}
 
-	// add a timer with a callback function methodName
-	private void addTimer(long deltaT, String methodName, String paramTypes[], Object params[]) {
-		try {
-			Method method = Callback.getMethod(methodName, this, paramTypes);
-			Callback cb = new Callback(method, this, params);
-			this.manager.addTimer(localAddr, deltaT, cb);
-		} catch (Exception e) {
-			node.logError("Failed to add timer callback. Method Name: " + methodName + "\nException: " + e);
-		}
+	private static boolean isPending(Event timer) {
+		return timer != null && timer.isPending();
 	}
 
 	/*
@@ -241,8 +274,209 @@ public class TCPSock {
 		return 0;
 	}
 
+	// A welcome socket passes the algorithm on to the sockets it accepts, for the data they send
 	public void setCcAlgorithm(CCALGO ccAlgo) {
-		this.ccAlgo = ccAlgo;
+		switch (ccAlgo) {
+		case RENO:
+			setCongestionControl(Reno::new);
+			break;
+		case CUBIC:
+			setCongestionControl(Cubic::new);
+			break;
+		case BBR:
+			setCongestionControl(BBR::new);
+			break;
+		case VEGAS:
+			setCongestionControl(Vegas::new);
+			break;
+		case DCTCP:
+			setCongestionControl(DCTCP::new);
+			break;
+		case NONE:
+			setCongestionControl(() -> new FixedWindow(1.0));
+			break;
+		}
+	}
+
+	// Use any congestion control algorithm. Set it before connecting: it starts from its own initial window
+	// The instance is the socket's own, and does not carry over to the sockets a welcome socket accepts:
+	// they get the algorithm set by setCcAlgorithm or by a factory, Reno by default
+	public void setCongestionControl(CongestionControl cc) {
+		this.cc = cc;
+	}
+
+	// Use any congestion control algorithm, with an instance from ccFactory for this socket, and one more
+	// for each socket it accepts if it is a welcome socket
+	public void setCongestionControl(Supplier<CongestionControl> ccFactory) {
+		this.cc = ccFactory.get();
+		this.ccFactory = ccFactory;
+	}
+
+	public CongestionControl getCongestionControl() {
+		return cc;
+	}
+
+	// Spread the segments of a window over the round trip. Off by default
+	public void setPacing(boolean pacing) {
+		this.pacing = pacing;
+	}
+
+	// also true for an algorithm that paces by itself, such as BBR, once it has a rate to pace at
+	public boolean isPacing() {
+		return pacing || cc.getPacingRate() > 0;
+	}
+
+	// Whether to send small segments at once, rather than hold them while data is in flight. On by default
+	// A welcome socket passes it on to the sockets it accepts
+	public void setNoDelay(boolean noDelay) {
+		this.noDelay = noDelay;
+		if (noDelay && state == State.ESTABLISHED)
+			tryToSend();
+	}
+
+	public boolean getNoDelay() {
+		return noDelay;
+	}
+
+	// Whether to hold a partial segment until more data is written. Uncorking, or closing, sends it
+	public void setCork(boolean cork) {
+		this.corked = cork;
+		if (!cork && state == State.ESTABLISHED)
+			tryToSend();
+	}
+
+	public boolean isCorked() {
+		return corked;
+	}
+
+	public long getSegmentsSent() {
+		return segmentsSent;
+	}
+
+	public long getSegmentsResent() {
+		return segmentsResent;
+	}
+
+	public long getSegmentsPaced() {
+		return segmentsPaced;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	// Whether to delay ACKs. Must be set before connecting, or on a welcome socket before accepting. Off by default
+	public void setDelayedAck(boolean delayedAck) {
+		this.delayedAck = delayedAck;
+	}
+
+	public boolean isDelayedAck() {
+		return delayedAck;
+	}
+
+	public long getSegmentsReceived() {
+		return segmentsReceived;
+	}
+
+	// segmentsReceived - acksSent is the number of ACK packets, and simulator events, that delayed ACKs saved
+	public long getAcksSent() {
+		return acksSent;
+	}
+
+	// delayed ACKs sent by the timer, each at the cost of a timer event
+	public long getAckTimeouts() {
+		return ackTimeouts;
+	}
+
+	// ACKs carried by DATA segments, which took no packet of their own
+	public long getAcksPiggybacked() {
+		return acksPiggybacked;
+	}
+
+	// the retransmission timeout, in microseconds, backed off if timeouts happened since the last RTT sample
+	public long getRTO() {
+		return rto;
+	}
+
+	// the smoothed RTT, in microseconds, or -1 before the first sample
+	public long getSRTT() {
+		return srtt;
+	}
+
+	// Whether to offer (on connect) or accept (on a welcome socket) selective acknowledgments
+	// Must be set before the connection is set up. On by default
+	public void setSackPermitted(boolean sackPermitted) {
+		this.sackPermitted = sackPermitted;
+	}
+
+	public boolean isSackEnabled() {
+		return sack;
+	}
+
+	// Whether to offer explicit congestion notification on connect. Must be set before connecting. Off by default
+	public void setEcn(boolean ecn) {
+		this.ecnPermitted = ecn;
+	}
+
+	public boolean isEcnEnabled() {
+		return ecn;
+	}
+
+	/**
+	 * Set the size of the receive buffer (readWindow). It can only shrink down to
+	 * the data it holds, and not while out-of-order data is held
+	 *
+	 * @param size int the size in bytes, from Transport.MAX_PAYLOAD_SIZE to
+	 *             MAX_BUFFER_SIZE
+	 * @return int 0 on success, -1 otherwise
+	 */
+	public int setReceiveBufferSize(int size) {
+		if (size < Transport.MAX_PAYLOAD_SIZE || size > MAX_BUFFER_SIZE)
+			return -1;
+		if (size == readWindow.length)
+			return 0;
+
+		if (size > readWindow.length) {
+			// everything that can be in the window keeps its place, out-of-order data included
+			readWindow = resizeWindow(readWindow, size, readPointer, readWindow.length);
+		} else {
+			if (!outOfOrder.isEmpty() || writePointer - readPointer > size)
+				return -1;
+			readWindow = resizeWindow(readWindow, size, readPointer, (int) (writePointer - readPointer));
+		}
+		return 0;
+	}
+
+	public int getReceiveBufferSize() {
+		return readWindow.length;
+	}
+
+	/**
+	 * Set the size of the send buffer (writeWindow). It can only shrink down to
+	 * the data written and not ACKed yet
+	 *
+	 * @param size int the size in bytes, from Transport.MAX_PAYLOAD_SIZE to
+	 *             MAX_BUFFER_SIZE
+	 * @return int 0 on success, -1 otherwise
+	 */
+	public int setSendBufferSize(int size) {
+		if (size < Transport.MAX_PAYLOAD_SIZE || size > MAX_BUFFER_SIZE)
+			return -1;
+		if (writeWPointer - readSafeWPointer > size)
+			return -1;
+
+		writeWindow = resizeWindow(writeWindow, size, readSafeWPointer, (int) (writeWPointer - readSafeWPointer));
+		return 0;
+	}
+
+	public int getSendBufferSize() {
+		return writeWindow.length;
+	}
+
+	// Let the receive buffer grow with the rate the application reads at, up to MAX_BUFFER_SIZE. Off by default
+	public void setReceiveBufferAutoTuning(boolean autoTune) {
+		this.autoTune = autoTune;
+		this.tuning = false;
 	}
 
 	/**
@@ -258,7 +492,8 @@ public class TCPSock {
 
 		this.state = State.LISTEN;
 		this.backlog = backlog;
-		this.connQ = new ArrayList<>();
+		this.connQ = new ArrayDeque<>();
+		this.pending = new SockTable();
 
 		return 0;
 	}
@@ -273,7 +508,8 @@ public class TCPSock {
 		if (state != State.LISTEN || connQ == null || connQ.size() == 0)
 			return null;
 
-		TCPSock connSock = connQ.remove(0);
+		TCPSock connSock = connQ.poll();
+		pending.remove(connSock);
 
 		tcpMan.registerSock(connSock);
 
@@ -308,17 +544,17 @@ public class TCPSock {
 		if (state != State.CLOSED)
 			return -1;
 
+		// a bound socket is looked up by its four-tuple from now on
+		boolean registered = tcpMan.unregisterSock(this);
 		this.remotePort = destPort;
 		this.remoteAddr = destAddr;
+		if (registered)
+			tcpMan.registerSock(this);
 
 		// transfer from CLOSED to SYN_SENT
-		this.baseSeq = new Random().nextInt(1000) + 1; // a random number [1, 1000]
-		Transport connRequestPacket = new Transport(localPort, destPort, Transport.SYN, 0, baseSeq, new byte[0]);
-		byte connRequestByte[] = connRequestPacket.pack();
-		Packet packet = new Packet(destAddr, localAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT, node.currentPacketSeq++,
-				connRequestByte);
+		this.baseSeq = manager.getRandom(localAddr).nextInt(1000) + 1; // a random number [1, 1000]
 		try {
-			manager.sendPkt(localAddr, destAddr, packet.pack());
+			sendSyn();
 			out("S");
 		} catch (IllegalArgumentException e) {
 			node.logError("Exception: " + e);
@@ -326,7 +562,7 @@ public class TCPSock {
 		state = State.SYN_SENT;
 
 		// timeout and resend SYN
-		this.addTimer(SYNTimeout, "resendSYN", null, null);
+		this.synTimer = setTimer(synTimer, SYNTimeout, () -> this.resendSYN());
 
 		return 0;
 	}
@@ -339,19 +575,15 @@ public class TCPSock {
 			return;
 
 		// transfer from CLOSED to SYN_SENT
-		Transport connRequestPacket = new Transport(localPort, remotePort, Transport.SYN, 0, baseSeq, new byte[0]);
-		byte connRequestByte[] = connRequestPacket.pack();
-		Packet packet = new Packet(remoteAddr, localAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-				node.currentPacketSeq++, connRequestByte);
 		try {
-			manager.sendPkt(localAddr, remoteAddr, packet.pack());
+			sendSyn();
 			out("S");
 		} catch (IllegalArgumentException e) {
 			node.logError("Exception: " + e);
 		}
 
 		// timeout and resend SYN
-		this.addTimer(SYNTimeout, "resendSYN", null, null);
+		this.synTimer = setTimer(synTimer, SYNTimeout, () -> this.resendSYN());
 	}
 
 	/**
@@ -367,17 +599,19 @@ public class TCPSock {
 
 		// for connection socket
 
-		// client side: no packet that needs resend
-		// server side: always
-		if (readSafeWPointer == writeWPointer && seqNumbers.isEmpty()) {
+		// a partial segment held back goes now
+		if (corked && state == State.ESTABLISHED) {
+			corked = false;
+			tryToSend();
+		}
+
+		// no packet that needs resend. Data still to come from the peer is not waited for:
+		// a socket that expects some closes once it has read it
+		if (readSafeWPointer == writeWPointer && inFlight.isEmpty()) {
 			// send FIN and shutdown
 			// Send FIN
-			Transport connRefusePacket = new Transport(localPort, remotePort, Transport.FIN, 0, 0, new byte[0]);
-			byte connRefuseByte[] = connRefusePacket.pack();
-			Packet finPacket = new Packet(remoteAddr, localAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-					node.currentPacketSeq++, connRefuseByte);
 			try {
-				manager.sendPkt(localAddr, remoteAddr, finPacket.pack());
+				sendSegment(localAddr, remoteAddr, localPort, remotePort, Transport.FIN, 0, 0);
 				out("F");
 			} catch (IllegalArgumentException e) {
 				node.logError("Exception: " + e);
@@ -389,6 +623,7 @@ public class TCPSock {
 		// some packet may still need resend
 		else {
 			state = State.SHUTDOWN;
+			closing = true;
 			return;
 		}
 
@@ -400,6 +635,12 @@ public class TCPSock {
 	public void release() {
 		tcpMan.unregisterSock(this);
 		state = State.CLOSED;
+		manager.cancelTimer(synTimer);
+		manager.cancelTimer(resendTimer);
+		manager.cancelTimer(receiveTimer);
+		manager.cancelTimer(paceTimer);
+		manager.cancelTimer(ackTimer);
+		manager.cancelTimer(persistTimer);
 	}
 
 	/**
@@ -442,41 +683,56 @@ public class TCPSock {
 
 		boolean sendSomething = false;
 
-		int seqFirst = -1;
+		while (cwndCurrent < cc.getCwnd() + recoveryInflation) {
 
-		int byteSent = 0; // note that tryToSend will send one more packet to avoid deadlock
-
-		while (cwndCurrent < cwnd && byteSent <= windowAvail) {
-
-			int sendPktLen = Math.min(Transport.MAX_PAYLOAD_SIZE, contentLengthWWindow());
+			int sendPktLen = Math.min(maxDataLength(), contentLengthWWindow());
 
 			if (sendPktLen == 0)
 				break; // nothing to send
 
-			byteSent += sendPktLen;
+			// a partial segment waits for more data, while corked or (Nagle) while data is in flight
+			if (sendPktLen < maxDataLength() && (corked || (!noDelay && !inFlight.isEmpty())))
+				break;
+
+			// flow control: stay within the window the receiver advertised. With nothing in flight, what fits
+			// is sent, and a closed window is probed, so that an ACK reports when it reopens
+			int room = (baseSeq + windowAvail) - sendSeq;
+			if (sendPktLen > room) {
+				if (!inFlight.isEmpty())
+					break;
+				if (room <= 0) {
+					startPersist();
+					break;
+				}
+				sendPktLen = room;
+			}
 
-			if (sendSomething == false) {
-				sendSomething = true;
-				seqFirst = sendSeq + sendPktLen;
+			// pacing, once there is a rate to pace at: wait for the next send time
+			double paceInterval = pacingInterval(sendPktLen);
+			if (paceInterval > 0) {
+				long now = manager.now();
+				if (nextSendTime > now) {
+					if (!isPending(paceTimer)) {
+						segmentsPaced++;
+						paceTimer = setTimer(paceTimer, (long) Math.ceil(nextSendTime) - now, () -> this.tryToSend());
+					}
+					break;
+				}
+				nextSendTime = Math.max(nextSendTime, now) + paceInterval;
 			}
 
-			byte tcpPayload[] = new byte[sendPktLen];
+			sendSomething = true;
 
-			readFromWWindow(tcpPayload, readWPointer);
+			long pointer = readWPointer;
 
 			readWPointer += sendPktLen;
 
-			Transport tcpDataPacket = new Transport(localPort, remotePort, Transport.DATA, 1, sendSeq, tcpPayload);
-
-			byte tcpByte[] = tcpDataPacket.pack();
-			Packet tcpPacket = new Packet(remoteAddr, localAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-					node.currentPacketSeq++, tcpByte);
 			try {
-				manager.sendPkt(localAddr, remoteAddr, tcpPacket.pack());
+				sendData(sendSeq, pointer, sendPktLen);
 				sendSeq += sendPktLen;
-				seqNumbers.add(sendSeq);
+				inFlight.add(sendSeq, manager.nowMicros(), delivered);
 				cwndCurrent++;
-				sampleRTTs.put(sendSeq, manager.now());
+				segmentsSent++;
 				out(".");
 			} catch (IllegalArgumentException e) {
 				node.logError("Exception: " + e);
@@ -486,97 +742,223 @@ public class TCPSock {
 		printSeqNumbers();
 
 		// timeout and resend data
-		debug("DATATimeout:" + DATATimeout);
-		// At least one packet is sent
-		if (sendSomething)
-			this.addTimer(DATATimeout, "resendData",
-					new String[] { "java.lang.Integer", "java.lang.Integer", "java.lang.Boolean", "java.lang.Long" },
-					new Object[] { Integer.valueOf(seqFirst), Integer.valueOf(sendSeq), Boolean.TRUE,
-							Long.valueOf(manager.now()) });
+		debug("RTO:" + rto);
+		// At least one packet is sent, and no earlier packet is already being timed
+		if (sendSomething && !isPending(resendTimer))
+			restartResendTimer();
 	}
 
-	long lastFireResend = -1;
-
-	// resend all packets that has not been ACKed
-	public void resendData(Integer firstSendSeqI, Integer finalSendSeqI, Boolean isTimeout, Long timeSet) {
-
-		// not the correct state
-		if (state != State.ESTABLISHED && state != State.SHUTDOWN)
+	// the window is closed with nothing in flight: probe it from the persist timer, starting after an RTO
+	private void startPersist() {
+		if (persisting)
 			return;
+		persisting = true;
+		persistInterval = (rto + 999) / 1000;
+		persistTimer = setTimer(persistTimer, persistInterval, () -> this.probeWindow());
+	}
 
-		// has been ACKed
-		if (!seqNumbers.contains(firstSendSeqI) && !seqNumbers.contains(finalSendSeqI))
+	// send the 1-byte probe, or send it again if it is still unACKed, and back off
+	private void probeWindow() {
+		if (!persisting || (state != State.ESTABLISHED && state != State.SHUTDOWN))
 			return;
+		if (inFlight.isEmpty()) {
+			if (contentLengthWWindow() == 0) {
+				persisting = false;
+				return;
+			}
+			try {
+				sendData(sendSeq, readWPointer, 1);
+				readWPointer++;
+				sendSeq++;
+				inFlight.add(sendSeq, manager.nowMicros(), delivered);
+				cwndCurrent++;
+				segmentsSent++;
+				out(".");
+			} catch (IllegalArgumentException e) {
+				node.logError("Exception: " + e);
+			}
+		} else {
+			resendSegment(0, baseSeq, readSafeWPointer, inFlight.end(0) - baseSeq);
+		}
+		persistInterval = Math.min(2 * persistInterval, MAX_RTO / 1000);
+		persistTimer = setTimer(persistTimer, persistInterval, () -> this.probeWindow());
+	}
 
-		// used to avoid resent problem
-		if (timeSet < lastFireResend) {
+	// an ACK reported the window: once it has room, data in flight (the probe) is timed by the RTO again
+	private void checkWindowOpen() {
+		if (!persisting || (baseSeq + windowAvail) - sendSeq <= 0)
 			return;
-		}
+		persisting = false;
+		manager.cancelTimer(persistTimer);
+		if (!inFlight.isEmpty())
+			restartResendTimer();
+	}
 
-		lastFireResend = manager.now();
+	// the most data a segment is sent with: with room for an ACK once it carries one
+	private int maxDataLength() {
+		if (!piggybacking())
+			return Transport.MAX_PAYLOAD_SIZE;
+		return Transport.MAX_PAYLOAD_SIZE - Transport.PIGGYBACK_HEADER_SIZE - (ecn ? Transport.ECN_ECHO_LENGTH : 0);
+	}
 
-		if (ccAlgo == CCALGO.RENO) {
-			cwnd /= 2.0; // MD
-		} else if (ccAlgo == CCALGO.CUBIC) {
-			// for cubic
-			epoch_start = 0;
-			if (cwnd < W_lastmax && fast_convergence) {
-				W_lastmax = cwnd * (2.0 - cubic_beta) / 2.0;
-			} else {
-				W_lastmax = cwnd;
-			}
-			cwnd = cwnd * (1.0 - cubic_beta);
-			ssthresh = cwnd;
+	// whether DATA segments carry an ACK: once the peer sends data too
+	private boolean piggybacking() {
+		return segmentsReceived > 0;
+	}
 
-			if (isTimeout)
-				cubic_reset();
+	// how long sending len bytes holds back the next segment, in milliseconds, or 0 when not pacing
+	// at the rate of the congestion control algorithm if it has one, otherwise at cwnd segments per estRTT
+	private double pacingInterval(int len) {
+		double rate = cc.getPacingRate();
+		if (rate > 0)
+			return len / rate;
+		if (pacing && estRTT > 0)
+			return estRTT / (cc.getCwnd() * PACING_GAIN);
+		return 0;
+	}
 
+	// (re)start the timer that resends data if no ACK is received within the RTO
+	private void restartResendTimer() {
+		this.resendTimer = setTimer(resendTimer, (rto + 999) / 1000, () -> this.resendData(true));
+	}
+
+	// take an RTT sample from an ACK for the segments up to the acked-th in flight, and update the RTO
+	// None is taken if any of them was resent: the ACK may be for the copy resent, or may have waited
+	// for it to fill a hole before the others
+	private void sampleRtt(int acked) {
+		for (int i = 0; i <= acked; i++) {
+			if (inFlight.retransmits(i) > 0)
+				return;
 		}
 
-		outW("" + cwnd);
+		long sampleRTT = manager.nowMicros() - inFlight.sentTime(acked);
+		debug("sampleRTT:" + sampleRTT);
+		// for the first measure
+		if (srtt == -1) {
+			srtt = sampleRTT;
+			rttvar = sampleRTT / 2;
+		} else {
+			rttvar = (long) ((1.0 - beta) * ((double) rttvar) + beta * (double) Math.abs(srtt - sampleRTT));
+			srtt = (long) ((1.0 - alpha) * ((double) srtt) + alpha * (double) sampleRTT);
+		}
+		rto = Math.max(MIN_RTO, Math.min(MAX_RTO, srtt + Math.max(CLOCK_GRANULARITY, 4 * rttvar)));
+		estRTT = srtt / 1000;
 
-		/*
-		 * if(isTimeout) System.out.println(cwnd); else System.out.println(cwnd);
-		 */
+		cc.onRttSample(sampleRTT / 1000, estRTT);
+	}
 
-		int resendSeq = baseSeq;
+	// resend what the receiver lacks: the timer fired, or (isTimeout false) a loss was detected otherwise
+	// On a timeout, only the oldest segment is resent, as RFC 6298 asks, rather than all of them at once:
+	// they would go into the queue that the loss came from. The ACK for it either ends the recovery or is
+	// partial, and the rest of what was lost is resent one segment per ACK as in fast recovery
+	public void resendData(boolean isTimeout) {
 
-		debug("lastSendSeqI=" + firstSendSeqI.intValue() + " resendSeq=" + resendSeq);
+		// not the correct state
+		if (state != State.ESTABLISHED && state != State.SHUTDOWN)
+			return;
 
+		// has been ACKed
+		if (inFlight.isEmpty())
+			return;
+
+		if (!isTimeout) {
+			if (!inRecovery)
+				enterRecovery();
+			return;
+		}
+
+		timeouts++;
+		rto = Math.min(2 * rto, MAX_RTO); // back off until the next RTT sample
+		cc.onTimeout(manager.now());
+		outW("" + cc.getCwnd());
+
+		// duplicate ACKs for data sent before now start no fast recovery
+		inRecovery = true;
+		recoveryFromTimeout = true;
+		recover = sendSeq;
+		recoveryInflation = 0;
+
+		debug("resendSeq=" + baseSeq);
 		printSeqNumbers();
 
-		long tmpPointer = readSafeWPointer;
+		// even if it was resent before
+		resendSegment(0, baseSeq, readSafeWPointer, inFlight.end(0) - baseSeq);
 
-		for (int i = 0; i < seqNumbers.size(); i++) {
+		// timeout and resend data
+		debug("RTO:" + rto);
 
-			int sendPktLen = seqNumbers.get(i) - resendSeq;
+		restartResendTimer();
 
-			byte tcpPayload[] = new byte[sendPktLen];
+	}
 
-			readFromWWindow(tcpPayload, tmpPointer);
+	// the third duplicate ACK: fast retransmit of the segment the receiver lacks, and fast recovery
+	private void enterRecovery() {
+		cc.onLoss(manager.now());
+		outW("" + cc.getCwnd());
+
+		inRecovery = true;
+		recoveryFromTimeout = false;
+		recover = sendSeq;
+		recoveryInflation = 3; // the segments that the three duplicate ACKs stand for
+		retransmitLost();
+		restartResendTimer();
+		tryToSend();
+	}
 
-			tmpPointer += sendPktLen;
+	// a further duplicate ACK during recovery: a segment left the network, let another one in,
+	// a known hole first. After a timeout, only a known hole is resent
+	private void dupAckInRecovery() {
+		if (!retransmitLost() && !recoveryFromTimeout)
+			recoveryInflation++;
+		tryToSend();
+	}
 
-			Transport tcpDataPacket = new Transport(localPort, remotePort, Transport.DATA, 1, resendSeq, tcpPayload);
+	// an ACK for new data during recovery: recovery ends once all the data sent before it is ACKed,
+	// otherwise the ACK is partial, and shows the segment after it lost too
+	private void ackInRecovery(int seq, int ackedSegments) {
+		if (seq - recover >= 0) { // compared as a difference, so that sequence numbers may wrap
+			inRecovery = false;
+			recoveryInflation = 0; // back to cwnd
+			return;
+		}
+		// the ACKed segments no longer need the inflation, and the segment resent takes the place of one
+		if (!recoveryFromTimeout)
+			recoveryInflation = Math.max(0, recoveryInflation - ackedSegments) + 1;
+		retransmitLost();
+	}
 
-			byte tcpByte[] = tcpDataPacket.pack();
-			Packet tcpPacket = new Packet(remoteAddr, localAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-					node.currentPacketSeq++, tcpByte);
-			try {
-				manager.sendPkt(localAddr, remoteAddr, tcpPacket.pack());
-				resendSeq += sendPktLen;
-				out("!");
-			} catch (IllegalArgumentException e) {
-				node.logError("Exception: " + e);
+	// resend the oldest segment in flight that the receiver lacks and that has not been resent yet,
+	// and return false if there is none. The oldest one is always lacking. With SACK, so are the holes
+	// below the highest block the receiver holds
+	private boolean retransmitLost() {
+		long lostBefore = scoreboard.isEmpty() ? readSafeWPointer : scoreboard.end(scoreboard.size() - 1);
+		int resendSeq = baseSeq;
+		long pointer = readSafeWPointer;
+		for (int i = 0; i < inFlight.size(); i++) {
+			int sendPktLen = inFlight.end(i) - resendSeq;
+			if (i > 0 && (!sack || pointer >= lostBefore))
+				break;
+
+			if (inFlight.retransmits(i) == 0 && !scoreboard.covers(pointer, pointer + sendPktLen)) {
+				resendSegment(i, resendSeq, pointer, sendPktLen);
+				return true;
 			}
+			resendSeq += sendPktLen;
+			pointer += sendPktLen;
 		}
-		// timeout and resend data
-		debug("DATAResendTimeout:" + DATATimeout);
-
-		this.addTimer(DATATimeout, "resendData",
-				new String[] { "java.lang.Integer", "java.lang.Integer", "java.lang.Boolean", "java.lang.Long" },
-				new Object[] { firstSendSeqI, Integer.valueOf(resendSeq), isTimeout, Long.valueOf(manager.now()) });
+		return false;
+	}
 
+	// resend the i-th segment in flight, which starts at seq and at pointer in the write window
+	private void resendSegment(int i, int seq, long pointer, int len) {
+		try {
+			sendData(seq, pointer, len);
+			inFlight.markRetransmitted(i);
+			segmentsResent++;
+			out("!");
+		} catch (IllegalArgumentException e) {
+			node.logError("Exception: " + e);
+		}
 	}
 
 	/**
@@ -613,6 +995,9 @@ public class TCPSock {
 		long timeNow = manager.now();
 		if (receiveTime + RECEIVETimeout <= timeNow) {
 			release();
+		} else {
+			// something was received since the timer was set, wait until RECEIVETimeout after it
+			manager.rescheduleTimerAt(receiveTimer, receiveTime + RECEIVETimeout);
 		}
 	}
 
@@ -622,16 +1007,16 @@ public class TCPSock {
 
 	int ackTimes;
 
-	public void onReceive(Packet packet) {
+	// The packet and segment are only valid during the call: the payload is copied to the read window
+	public void onReceive(PacketView packet, TransportView tcpPacket) {
 
 		// For connection socket, close if haven't receive anything for a long time
 		if (remoteAddr != -1 && remotePort != -1) {
 			receiveTime = manager.now();
-			addTimer(RECEIVETimeout, "releaseIfNoReceive", null, null);
+			if (!isPending(receiveTimer))
+				receiveTimer = setTimer(receiveTimer, RECEIVETimeout, () -> this.releaseIfNoReceive());
 		}
 
-		Transport tcpPacket = Transport.unpack(packet.getPayload());
-
 		int destPort = tcpPacket.getDestPort();
 		int srcPort = tcpPacket.getSrcPort();
 		int destAddr = packet.getDest();
@@ -640,7 +1025,6 @@ public class TCPSock {
 		int type = tcpPacket.getType();
 		int seq = tcpPacket.getSeqNum();
 		int windowClient = tcpPacket.getWindow();
-		byte packetPayload[] = tcpPacket.getPayload();
 
 		// for SYN packet
 		if (type == Transport.SYN) {
@@ -654,12 +1038,8 @@ public class TCPSock {
 			if ((state != State.LISTEN && state != State.ESTABLISHED)
 					|| (state == State.LISTEN && connQ.size() >= backlog)) {
 				// Send FIN
-				Transport connRefusePacket = new Transport(destPort, srcPort, Transport.FIN, 0, 0, new byte[0]);
-				byte connRefuseByte[] = connRefusePacket.pack();
-				Packet finPacket = new Packet(srcAddr, destAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-						node.currentPacketSeq++, connRefuseByte);
 				try {
-					manager.sendPkt(destAddr, srcAddr, finPacket.pack());
+					sendSegment(destAddr, srcAddr, destPort, srcPort, Transport.FIN, 0, 0);
 					out("F");
 				} catch (IllegalArgumentException e) {
 					node.logError("Exception: " + e);
@@ -667,17 +1047,25 @@ public class TCPSock {
 				return;
 			}
 
+			// SACK is used if the client offers it and it is permitted here
+			// (for an established socket, if it was agreed on the first SYN)
+			boolean useSack = (state == State.LISTEN)
+					? sackPermitted && tcpPacket.findOption(Transport.OPTION_SACK_PERMITTED) >= 0
+					: sack;
+			// and so is ECN, if the client offers it
+			boolean useEcn = (state == State.LISTEN) ? tcpPacket.findOption(Transport.OPTION_ECN_PERMITTED) >= 0
+					: ecn;
+
 			// Send ACK (there is no need for timeout this packet, as the client who sends
 			// SYN will time out)
 			// note that availableWindowSize here should be full window for the welcome
 			// socket
-			Transport connAckPacket = new Transport(destPort, srcPort, Transport.ACK, availableWindowSize(), seq + 1,
-					new byte[0]);
-			byte connAckByte[] = connAckPacket.pack();
-			Packet ackPacket = new Packet(srcAddr, destAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-					node.currentPacketSeq++, connAckByte);
 			try {
-				manager.sendPkt(destAddr, srcAddr, ackPacket.pack());
+				int optionsLength = useSack ? Transport.writeSackPermitted(options, 0) : 0;
+				if (useEcn)
+					optionsLength += Transport.writeEcnPermitted(options, optionsLength);
+				tcpMan.sendSegment(destAddr, srcAddr, destPort, srcPort, Transport.ACK, availableWindowSize(), seq + 1,
+						options, optionsLength);
 				out(":"); // ACK for SYN
 			} catch (IllegalArgumentException e) {
 				node.logError("Exception: " + e);
@@ -692,11 +1080,25 @@ public class TCPSock {
 				connectionSock.remoteAddr = srcAddr;
 				connectionSock.remotePort = srcPort;
 				connectionSock.state = State.ESTABLISHED;
-				connectionSock.baseSeq = seq + 1; // the first expected data seq
-				// connectionSock.sendSeq = seq + 1; // For the server, nextSeq is always equal
-				// to startSeq
+				connectionSock.recvSeq = seq + 1; // the first expected data seq
+				connectionSock.baseSeq = seq + 1; // and the first one sent, for data the other way
+				connectionSock.sendSeq = seq + 1;
+				connectionSock.windowAvail = windowClient; // the client's receive buffer
+				connectionSock.setCongestionControl(this.ccFactory);
+				connectionSock.pacing = this.pacing;
+				connectionSock.noDelay = this.noDelay;
+				connectionSock.sackPermitted = this.sackPermitted;
+				connectionSock.sack = useSack;
+				connectionSock.ecn = useEcn;
+				connectionSock.ecnWindowEnd = seq + 1;
+				connectionSock.recover = seq + 1;
+				connectionSock.setReceiveBufferSize(readWindow.length);
+				connectionSock.setSendBufferSize(writeWindow.length);
+				connectionSock.autoTune = this.autoTune;
+				connectionSock.delayedAck = this.delayedAck;
 
 				connQ.add(connectionSock); // new socket always appends at the end
+				pending.add(connectionSock);
 			}
 			return;
 		}
@@ -712,18 +1114,21 @@ public class TCPSock {
 				ackTimes = 1;
 			}
 
-			boolean doRetransmission = false;
-			// The fourth time
-			if (ackTimes == 4) {
-				doRetransmission = true;
-			}
-
 			// ACK for SYN
 			if (state == State.SYN_SENT) {
 				if (seq == baseSeq + 1) {
 					baseSeq += 1;
 					sendSeq = baseSeq;
+					recvSeq = baseSeq; // the server's data is numbered the same way
+					// the server's receive buffer, which may differ from ours
+					windowAvail = windowClient;
+					// the server accepts SACK by echoing the option
+					sack = sackPermitted && tcpPacket.findOption(Transport.OPTION_SACK_PERMITTED) >= 0;
+					ecn = ecnPermitted && tcpPacket.findOption(Transport.OPTION_ECN_PERMITTED) >= 0;
+					ecnWindowEnd = baseSeq;
+					recover = baseSeq;
 					state = State.ESTABLISHED;
+					manager.cancelTimer(synTimer);
 					out(":"); // ACK for SYN
 					return;
 				} else {
@@ -732,205 +1137,28 @@ public class TCPSock {
 					return;
 				}
 			}
-			// ACK for Data
-			else if (state == State.ESTABLISHED) {
-				// The ACK expected
-				if (seqNumbers.size() > 0 && seqNumbers.contains(seq)) {
-
-					int numberOfSeqsToClear = seqNumbers.indexOf(seq) + 1;
-
-					// remove lost ACKs
-					for (int i = 0; i < numberOfSeqsToClear; i++) {
-						int lostACKs = seqNumbers.remove(0);
-						if (i != numberOfSeqsToClear - 1) {
-							sampleRTTs.remove(lostACKs);
-						}
-					}
-
-					debug("receive ACK:" + seq);
-					printSeqNumbers();
-					readSafeWPointer += seq - baseSeq; // increment by the length of the packet
-					baseSeq = seq;
-
-					out(":");
-
-					cwndCurrent -= numberOfSeqsToClear;
-
-					// update estRTT and devRTT and DATATimeout
-					long sentTime = sampleRTTs.remove(seq).longValue();
-					long sampleRTT = manager.now() - sentTime;
-					debug("sampleRTT:" + sampleRTT);
-					// for the first measure
-					if (estRTT == -1) {
-						estRTT = sampleRTT;
-						devRTT = sampleRTT;
-						DATATimeout = estRTT + 4 * devRTT;
-					} else {
-						estRTT = (long) ((1.0 - alpha) * ((double) estRTT) + alpha * (double) sampleRTT);
-						devRTT = (long) ((1.0 - beta) * ((double) devRTT)
-								+ beta * (double) Math.abs(sampleRTT - estRTT));
-						DATATimeout = estRTT + 4 * devRTT;
-					}
-
-					// AI
-					if (ccAlgo == CCALGO.RENO) {
-						cwnd += 1.0 / cwnd;
-					} else if (ccAlgo == CCALGO.CUBIC) {
-						// for cubic
-						if (dMin != 0) {
-							dMin = Math.min(dMin, estRTT);
-						} else {
-							dMin = estRTT;
-						}
-
-						if (cwnd <= ssthresh) {
-							cwnd += 1;
-						} else {
-							double cnt = cubic_update();
-							if (cwnd_cnt > cnt) {
-								cwnd += 1;
-								cwnd_cnt = 0;
-							} else {
-								cwnd_cnt += 1;
-							}
-						}
-					}
-					outW("" + cwnd);
-
-					this.windowAvail = windowClient;
-					tryToSend();
-
-					return;
-				}
-				// Not the expected ACK
-				else {
-					out("?");
-					// do retransmission
-					if (doRetransmission && seqNumbers.size() > 0) {
-						resendData(seqNumbers.get(0), seqNumbers.get(0), Boolean.FALSE, Long.valueOf(manager.now()));
-					}
-					return;
-				}
-			}
-			// ACK for SHUTDOWN
-			else if (state == State.SHUTDOWN) {
-				// The ACK expected
-				if (seqNumbers.size() > 0 && seqNumbers.contains(seq)) {
-
-					int numberOfSeqsToClear = seqNumbers.indexOf(seq) + 1;
-
-					// remove lost ACKs
-					for (int i = 0; i < numberOfSeqsToClear; i++) {
-						int lostACKs = seqNumbers.remove(0);
-						if (i != numberOfSeqsToClear - 1) {
-							sampleRTTs.remove(lostACKs);
-						}
-					}
-
-					debug("receive ACK:" + seq);
-					printSeqNumbers();
-					readSafeWPointer += seq - baseSeq; // increment by the length of the packet
-					baseSeq = seq;
-
-					out(":");
-
-					cwndCurrent -= numberOfSeqsToClear;
-
-					// update estRTT and devRTT and DATATimeout
-					long sentTime = sampleRTTs.remove(seq).longValue();
-					long sampleRTT = manager.now() - sentTime;
-
-					// for the first measure
-					if (estRTT == -1) {
-						estRTT = sampleRTT;
-						devRTT = sampleRTT;
-						DATATimeout = estRTT + 4 * devRTT;
-					} else {
-						estRTT = (long) ((1.0 - alpha) * ((double) estRTT) + alpha * (double) sampleRTT);
-						devRTT = (long) ((1.0 - beta) * ((double) devRTT)
-								+ beta * (double) Math.abs(sampleRTT - estRTT));
-						DATATimeout = estRTT + 4 * devRTT;
-					}
-
-					// AI
-					if (ccAlgo == CCALGO.RENO) {
-						cwnd += 1.0 / cwnd;
-					} else if (ccAlgo == CCALGO.CUBIC) {
-						// for cubic
-						if (dMin != 0) {
-							dMin = Math.min(dMin, estRTT);
-						} else {
-							dMin = estRTT;
-						}
-
-						if (cwnd <= ssthresh) {
-							cwnd += 1;
-						} else {
-							double cnt = cubic_update();
-							if (cwnd_cnt > cnt) {
-								cwnd += 1;
-								cwnd_cnt = 0;
-							} else {
-								cwnd_cnt += 1;
-							}
-						}
-					}
-
-					outW("" + cwnd);
-
-					this.windowAvail = windowClient;
-					tryToSend();
-
-					close(); // call close again
-
-					return;
-				}
-				// Not the expected ACK
-				else {
-					out("?");
-
-					// do retransmission
-					if (doRetransmission && seqNumbers.size() > 0) {
-						resendData(seqNumbers.get(0), seqNumbers.get(0), Boolean.FALSE, Long.valueOf(manager.now()));
-					}
-
-					return;
-				}
-			}
-			// ACK for other states
-			else {
-				out("X");
-				return;
-			}
+			receiveAck(tcpPacket, seq, windowClient, false);
+			return;
 		}
 
-		// For DATA packet
-		else if (type == Transport.DATA) {
+		// For DATA packet, with or without an ACK
+		else if (type == Transport.DATA || type == Transport.DATA_ACK) {
 
 			// The connection socket is still in connQ, not in tcpMan.sockets
 			if (srcAddr != remoteAddr || srcPort != remotePort) {
 				// forward to the socket in connQ, if any
-				Iterator<TCPSock> iter = connQ.iterator();
-
-				while (iter.hasNext()) {
-					TCPSock current = iter.next();
-					if (current.localAddr == destAddr && current.localPort == destPort && current.remoteAddr == srcAddr
-							&& current.remotePort == srcPort) {
-						current.onReceive(packet); // forward to the connection socket
-						return;
-					}
+				TCPSock current = (connQ == null) ? null : pending.get(destAddr, destPort, srcAddr, srcPort);
+				if (current != null) {
+					current.onReceive(packet, tcpPacket); // forward to the connection socket
+					return;
 				}
 
 				// no socket, send fin
 				out("X"); // receive an unexpected packet
 
 				// Send FIN
-				Transport connRefusePacket = new Transport(destPort, srcPort, Transport.FIN, 0, 0, new byte[0]);
-				byte connRefuseByte[] = connRefusePacket.pack();
-				Packet finPacket = new Packet(srcAddr, destAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-						node.currentPacketSeq++, connRefuseByte);
 				try {
-					manager.sendPkt(destAddr, srcAddr, finPacket.pack());
+					sendSegment(destAddr, srcAddr, destPort, srcPort, Transport.FIN, 0, 0);
 					out("F");
 				} catch (IllegalArgumentException e) {
 					node.logError("Exception: " + e);
@@ -939,60 +1167,115 @@ public class TCPSock {
 
 			}
 
+			// the ACK for SYN was lost, and the server sent data before it knew: it resends once it is ACKed
+			else if (state == State.SYN_SENT) {
+				out("X");
+				return;
+			}
+
 			// The current socket in the correct connection socket
 			else {
 
+				// echoed in this ACK and all later ones, whatever happens to the segment
+				if (ecn && packet.isCongestionExperienced())
+					ceReceived++;
+				boolean markChanged = ecn && packet.isCongestionExperienced() != lastCongestionExperienced;
+				lastCongestionExperienced = packet.isCongestionExperienced();
+				segmentsReceived++;
+
+				int dataLength = tcpPacket.getDataLength();
+				int offset = seq - recvSeq; // how far past the next expected byte the segment starts
+				boolean inOrder = (offset == 0 && availableWindowSize() >= dataLength);
+				boolean ackNow = true; // whether to ACK it without waiting for another segment
+
 				// the seq expect
-				if (seq == baseSeq && availableWindowSize() >= packetPayload.length) {
+				if (inOrder) {
 					out("."); // receive an expected packet
-					baseSeq += packetPayload.length;
 					debug("receive:" + seq);
 
-					// send ACK (no need to time out at the server side)
-					Transport connAckPacket = new Transport(destPort, srcPort, Transport.ACK,
-							availableWindowSize() - packetPayload.length, baseSeq, new byte[0]);
-					byte connAckByte[] = connAckPacket.pack();
-					Packet ackPacket = new Packet(srcAddr, destAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-							node.currentPacketSeq++, connAckByte);
+					// save payload at the socket window
+					writeToWindow(writePointer, tcpPacket.getBuffer(), tcpPacket.getDataOffset(), dataLength);
+					writePointer += dataLength;
+
+					// the segments held after it that are now contiguous become readable too
+					boolean gap = !outOfOrder.isEmpty(); // filled by this segment, in part or in full
+					long contiguous = outOfOrder.advance(writePointer);
+					recvSeq += dataLength + (int) (contiguous - writePointer);
+					writePointer = contiguous;
+
+					// ACKed below, once the ACK it carries has been handled
+					ackPending++;
+					ackNow = !delayedAck || ackPending >= 2 || gap || markChanged;
+				}
+				// a later packet that fits in the window: keep it until the gap before it is filled
+				else if (offset > 0 && (long) offset + dataLength <= availableWindowSize()) {
+					out("!"); // receive an unexpected packet
+					debug("hold:" + seq);
+
+					writeToWindow(writePointer + offset, tcpPacket.getBuffer(), tcpPacket.getDataOffset(), dataLength);
+					outOfOrder.add(writePointer + offset, writePointer + offset + dataLength);
+
+					// send old ACK (no need to time out at the server side)
 					try {
-						manager.sendPkt(destAddr, srcAddr, ackPacket.pack());
-						out(":");
+						sendAck(destAddr, srcAddr, destPort, srcPort, availableWindowSize(), recvSeq);
+						out("?");
 					} catch (IllegalArgumentException e) {
 						node.logError("Exception: " + e);
 					}
-
-					// save payload at the socket window
-					writeToWindow(packetPayload);
-
-					return;
 				}
-				// out of order packet or window is full
+				// old packet or window is full
 				else {
 					out("!"); // receive an unexpected packet
 
 					// send old ACK (no need to time out at the server side)
-					Transport connAckPacket = new Transport(destPort, srcPort, Transport.ACK, availableWindowSize(),
-							baseSeq, new byte[0]);
-					byte connAckByte[] = connAckPacket.pack();
-					Packet ackPacket = new Packet(srcAddr, destAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT,
-							node.currentPacketSeq++, connAckByte);
 					try {
-						manager.sendPkt(destAddr, srcAddr, ackPacket.pack());
+						sendAck(destAddr, srcAddr, destPort, srcPort, availableWindowSize(), recvSeq);
 						out("?");
 					} catch (IllegalArgumentException e) {
 						node.logError("Exception: " + e);
 					}
+				}
+
+				// after the data, so that any data it lets out carries the ACK for it
+				if (type == Transport.DATA_ACK)
+					receiveAck(tcpPacket, tcpPacket.getAckNum(), windowClient, true);
+
+				if (!inOrder || state == State.CLOSED)
 					return;
+
+				// send ACK (no need to time out at the server side): on data of our own if there is some,
+				// otherwise on its own, or with the next segment if it may wait
+				if (ackPending > 0 && contentLengthWWindow() > 0)
+					tryToSend();
+				if (ackPending > 0) {
+					if (!ackNow) {
+						ackTimer = setTimer(ackTimer, DELAYED_ACK_TIMEOUT, () -> this.sendDelayedAck());
+					} else {
+						try {
+							sendAck(destAddr, srcAddr, destPort, srcPort, availableWindowSize(), recvSeq);
+							out(":");
+						} catch (IllegalArgumentException e) {
+							node.logError("Exception: " + e);
+						}
+					}
 				}
+
+				tuneReceiveBuffer();
+
+				return;
 			}
 		}
 
 		// For FIN packet
 		else if (type == Transport.FIN) {
-			// simply release itself
+			// simply release itself: the peer has gone, and takes no more data
 			out("F");
 			if (readPointer != writePointer) { // still need to be read
 				state = State.SHUTDOWN;
+				closing = false;
+				manager.cancelTimer(resendTimer);
+				manager.cancelTimer(paceTimer);
+				manager.cancelTimer(persistTimer);
 			} else {
 				release();
 			}
@@ -1001,18 +1284,101 @@ public class TCPSock {
 
 	}
 
-	// Test whether the same setting is used by other sockets currently in connQ
-	public boolean isUsedInConnQ(int localAddr, int localPort, int remoteAddr, int remotePort) {
-		Iterator<TCPSock> iter = connQ.iterator();
+	// the ACK of an ACK or DATA_ACK packet, for the data sent up to seq, with the receive window of the peer
+	// Only an ACK packet that ACKs nothing new is a duplicate ACK: data carries the same ACK until new data
+	// from here is ACKed
+	private void receiveAck(TransportView ack, int seq, int windowClient, boolean piggybacked) {
+		boolean doRetransmission = false;
+		boolean probing = persisting; // as the ACK arrives, before it may reopen the window
+		// The fourth time
+		if (!piggybacked && ackTimes == 4) {
+			doRetransmission = true;
+		}
 
-		while (iter.hasNext()) {
-			TCPSock current = iter.next();
-			if (current.localAddr == localAddr && current.localPort == localPort && current.remoteAddr == remoteAddr
-					&& current.remotePort == remotePort)
-				return true;
+		// the blocks the receiver holds past the ACKed seq
+		if (sack)
+			readSack(ack);
+		// the marks the receiver has seen so far
+		if (ecn)
+			readEcnEcho(ack);
+
+		// ACK for Data, or for data before SHUTDOWN
+		if (state != State.ESTABLISHED && state != State.SHUTDOWN) {
+			// ACK for other states
+			out("X");
+			return;
 		}
 
-		return false;
+		// The ACK expected
+		int acked = inFlight.indexOf(seq);
+		if (acked >= 0) {
+
+			int numberOfSeqsToClear = acked + 1;
+			long sentTime = inFlight.sentTime(acked) / 1000;
+			long deliveredAtSend = inFlight.delivered(acked);
+
+			sampleRtt(acked);
+
+			// remove the ACKed segments, including those whose ACKs were lost
+			inFlight.removeFirst(numberOfSeqsToClear);
+
+			debug("receive ACK:" + seq);
+			printSeqNumbers();
+			readSafeWPointer += seq - baseSeq; // increment by the length of the packet
+			delivered += seq - baseSeq;
+			baseSeq = seq;
+			delivered -= scoreboard.removeBefore(readSafeWPointer); // SACKed before, counted then
+
+			out(":");
+
+			cwndCurrent -= numberOfSeqsToClear;
+
+			cc.onAck(manager.now(), numberOfSeqsToClear, sentTime, deliveredAtSend, delivered, sendSeq - baseSeq);
+			if (ecn)
+				ecnAck(numberOfSeqsToClear, seq);
+			if (inRecovery)
+				ackInRecovery(seq, numberOfSeqsToClear);
+			outW("" + cc.getCwnd());
+
+			// the oldest packets have been ACKed, time the rest from now
+			if (inFlight.isEmpty())
+				manager.cancelTimer(resendTimer);
+			else if (!persisting)
+				restartResendTimer();
+
+			this.windowAvail = windowClient;
+			checkWindowOpen();
+			tryToSend();
+
+			if (closing)
+				close(); // call close again
+		}
+		// Not the expected ACK
+		else {
+			if (!piggybacked)
+				out("?");
+			// a duplicate ACK still updates the window, and may open it
+			if (seq == baseSeq && windowClient != windowAvail) {
+				boolean opened = windowClient > windowAvail;
+				windowAvail = windowClient;
+				checkWindowOpen();
+				if (opened && !doRetransmission)
+					tryToSend();
+			}
+			// the third duplicate ACK starts fast recovery, and the ones after it keep data flowing
+			// The ACKs for a probe the closed window turned away are no sign of loss
+			if (!piggybacked && seq == baseSeq && !inFlight.isEmpty() && !probing) {
+				if (inRecovery)
+					dupAckInRecovery();
+				else if (doRetransmission && seq - recover >= 0)
+					enterRecovery();
+			}
+		}
+	}
+
+	// Test whether the same setting is used by other sockets currently in connQ
+	public boolean isUsedInConnQ(int localAddr, int localPort, int remoteAddr, int remotePort) {
+		return pending.contains(localAddr, localPort, remoteAddr, remotePort);
 	}
 
 	/* all functions related to window and read/write pointers */
@@ -1022,10 +1388,51 @@ public class TCPSock {
 		return (int) ((long) readWindow.length - (writePointer - readPointer));
 	}
 
-	// write to window (must be called after checking availableWindowSize)
-	private void writeToWindow(byte payload[]) {
-		for (int i = 0; i < payload.length; i++) {
-			readWindow[(int) ((writePointer++) % (long) readWindow.length)] = payload[i];
+	// copy len bytes of src[off...] to the window at pointer
+	// (must be called after checking availableWindowSize, writePointer is left to the caller)
+	private void writeToWindow(long pointer, byte src[], int off, int len) {
+		int start = (int) (pointer % (long) readWindow.length);
+		int first = Math.min(len, readWindow.length - start);
+		System.arraycopy(src, off, readWindow, start, first);
+		System.arraycopy(src, off + first, readWindow, 0, len - first);
+	}
+
+	// a copy of a ring window with a new size, where the len bytes from pointer on keep their pointers
+	private static byte[] resizeWindow(byte window[], int size, long pointer, int len) {
+		byte resized[] = new byte[size];
+		int copied = 0;
+		while (copied < len) {
+			int from = (int) ((pointer + copied) % (long) window.length);
+			int to = (int) ((pointer + copied) % (long) size);
+			int n = Math.min(len - copied, Math.min(window.length - from, size - to));
+			System.arraycopy(window, from, resized, to, n);
+			copied += n;
+		}
+		return resized;
+	}
+
+	// Called after data is ACKed. Ends the round trip being measured once recvSeq has reached the edge of the
+	// window advertised when it started, growing readWindow if the application read more than half of it,
+	// and starts the next one
+	private void tuneReceiveBuffer() {
+		if (!autoTune)
+			return;
+
+		if (tuning && recvSeq - tuneSeq >= 0) {
+			long drained = readPointer - tuneRead;
+			if (2 * drained > readWindow.length) {
+				// in whole segments
+				long size = (2 * drained + Transport.MAX_PAYLOAD_SIZE - 1) / Transport.MAX_PAYLOAD_SIZE
+						* Transport.MAX_PAYLOAD_SIZE;
+				setReceiveBufferSize((int) Math.min(size, MAX_BUFFER_SIZE));
+				debug("receive buffer:" + readWindow.length);
+			}
+			tuning = false;
+		}
+		if (!tuning) {
+			tuning = true;
+			tuneRead = readPointer;
+			tuneSeq = recvSeq + availableWindowSize();
 		}
 	}
 
@@ -1046,11 +1453,164 @@ public class TCPSock {
 		return (int) (writeWPointer - readWPointer);
 	}
 
-	// readFrom Wwindow for payload.length bytes (must be called after checking
-	// contentLengthWWindow to avoid payload.length to be too large)
-	private void readFromWWindow(byte payload[], long pointer) {
-		for (int i = 0; i < payload.length; i++) {
-			payload[i] = writeWindow[(int) ((pointer++) % (long) writeWindow.length)];
+	// copy len bytes of the write window, starting at pointer, to dst[off...]
+	private void readFromWWindow(byte dst[], int off, int len, long pointer) {
+		int start = (int) (pointer % (long) writeWindow.length);
+		int first = Math.min(len, writeWindow.length - start);
+		System.arraycopy(writeWindow, start, dst, off, first);
+		System.arraycopy(writeWindow, 0, dst, off + first, len - first);
+	}
+
+	// send a segment without payload
+	private void sendSegment(int from, int to, int srcPort, int destPort, int type, int window, int seq) {
+		tcpMan.sendSegment(from, to, srcPort, destPort, type, window, seq);
+	}
+
+	// send a SYN, offering SACK and ECN if permitted, with the receive window for the data the server sends
+	private void sendSyn() {
+		int optionsLength = sackPermitted ? Transport.writeSackPermitted(options, 0) : 0;
+		if (ecnPermitted)
+			optionsLength += Transport.writeEcnPermitted(options, optionsLength);
+		tcpMan.sendSegment(localAddr, remoteAddr, localPort, remotePort, Transport.SYN, availableWindowSize(), baseSeq,
+				options, optionsLength);
+	}
+
+	// the delayed ACK timer fired, and no segment came to be ACKed with the one waiting
+	private void sendDelayedAck() {
+		if (ackPending == 0 || state == State.CLOSED)
+			return;
+
+		ackTimeouts++;
+		try {
+			sendAck(localAddr, remoteAddr, localPort, remotePort, availableWindowSize(), recvSeq);
+			out(":");
+		} catch (IllegalArgumentException e) {
+			node.logError("Exception: " + e);
+		}
+	}
+
+	// send an ACK. With SACK, it carries the blocks held in the read window past recvSeq,
+	// and with ECN, the number of marked segments received, after as many blocks as leave room for it
+	// It ACKs any segment a delayed ACK is pending for
+	private void sendAck(int from, int to, int srcPort, int destPort, int window, int seq) {
+		clearPendingAck();
+		acksSent++;
+		int optionsLength = writeAckOptions(options, 0, Transport.MAX_PAYLOAD_SIZE);
+		tcpMan.sendSegment(from, to, srcPort, destPort, Transport.ACK, window, seq, options, optionsLength);
+	}
+
+	// an ACK is on its way: no segment waits for one any more
+	private void clearPendingAck() {
+		ackPending = 0;
+		if (isPending(ackTimer))
+			manager.cancelTimer(ackTimer);
+	}
+
+	// write the options of an ACK to buf[off...], in at most room bytes, and return their length
+	// The ECN echo comes first for room, and then as many SACK blocks as fit before it
+	private int writeAckOptions(byte buf[], int off, int room) {
+		int maxBlocks = Math.min(Transport.MAX_SACK_BLOCKS,
+				Transport.sackBlocks(ecn ? room - Transport.ECN_ECHO_LENGTH : room));
+		int blocks = sack ? Math.min(outOfOrder.size(), maxBlocks) : 0;
+		int optionsLength = 0;
+		if (blocks > 0) {
+			optionsLength = Transport.writeSack(buf, off, blocks);
+			for (int i = 0; i < blocks; i++) {
+				Transport.writeSackBlock(buf, off, i, recvSeq + (int) (outOfOrder.start(i) - writePointer),
+						recvSeq + (int) (outOfOrder.end(i) - writePointer));
+			}
+		}
+		if (ecn && room - optionsLength >= Transport.ECN_ECHO_LENGTH)
+			optionsLength += Transport.writeEcnEcho(buf, off + optionsLength, ceReceived);
+		return optionsLength;
+	}
+
+	// record the SACK blocks of an ACK in the scoreboard
+	private void readSack(TransportView ack) {
+		int at = ack.findOption(Transport.OPTION_SACK);
+		if (at < 0)
+			return;
+
+		byte buf[] = ack.getBuffer();
+		int blocks = Transport.sackBlocks(ack.getOptionLength(at));
+		int inFlight = sendSeq - baseSeq;
+		for (int i = 0; i < blocks; i++) {
+			// relative to the first byte not ACKed yet, and only within the data sent
+			int start = Math.max(0, Transport.readSackStart(buf, at, i) - baseSeq);
+			int end = Math.min(inFlight, Transport.readSackEnd(buf, at, i) - baseSeq);
+			if (start < end)
+				delivered += scoreboard.add(readSafeWPointer + start, readSafeWPointer + end);
+		}
+	}
+
+	// add the marks newly echoed by an ACK to the current window of data
+	// The count runs over the whole connection, so an ACK that is lost only delays the marks to the next one
+	private void readEcnEcho(TransportView ack) {
+		int at = ack.findOption(Transport.OPTION_ECN_ECHO);
+		if (at < 0 || ack.getOptionLength(at) < Transport.ECN_ECHO_LENGTH)
+			return;
+
+		int count = Transport.readEcnEcho(ack.getBuffer(), at);
+		int marked = count - ceEchoed; // compared as a difference, so that the count may wrap
+		if (marked > 0) {
+			ecnMarked += marked;
+			ceEchoed = count;
+		}
+	}
+
+	// count the segments an ACK takes out of flight, and once the window of data that was in flight
+	// when the last one ended is ACKed, tell the congestion control what fraction of it was marked
+	private void ecnAck(int ackedSegments, int seq) {
+		ecnAcked += ackedSegments;
+		if (seq - ecnWindowEnd < 0)
+			return;
+
+		cc.onCongestionExperienced(manager.now(), Math.min(1.0, (double) ecnMarked / ecnAcked));
+		ecnMarked = 0;
+		ecnAcked = 0;
+		ecnWindowEnd = sendSeq;
+	}
+
+	// send a DATA segment carrying len bytes of the write window starting at pointer,
+	// written straight from the window into a pooled buffer, which the manager releases
+	// Once the peer sends data, it is a DATA_ACK carrying an ACK for it too, with as many options as fit,
+	// unless the segment was sized before that and leaves no room. With ECN, it is sent ECN-capable
+	private void sendData(int seq, long pointer, int len) {
+		boolean ack = piggybacking() && len + Transport.PIGGYBACK_HEADER_SIZE <= Transport.MAX_PAYLOAD_SIZE;
+		int optionsLength = 0;
+		int payloadLength = len;
+		if (ack) {
+			int room = Transport.MAX_PAYLOAD_SIZE - Transport.PIGGYBACK_HEADER_SIZE - len;
+			optionsLength = writeAckOptions(options, 0, room);
+			payloadLength += Transport.PIGGYBACK_HEADER_SIZE + optionsLength;
+		}
+
+		byte segment[] = manager.acquireBuffer(SegmentBuilder.segmentLength(payloadLength));
+		boolean handedOver = false; // to the manager, which releases the buffer from then on
+		try {
+			int segmentLength = tcpMan.segmentBuilder()
+					.network(remoteAddr, localAddr, Packet.MAX_TTL, Protocol.TRANSPORT_PKT, node.currentPacketSeq++)
+					.transport(localPort, remotePort, ack ? Transport.DATA_ACK : Transport.DATA,
+							ack ? availableWindowSize() : 1, seq)
+					.writeTo(segment, 0, payloadLength);
+			int at = SegmentBuilder.PAYLOAD_OFFSET;
+			if (ack) {
+				at += Transport.writePiggybackedAck(segment, at, recvSeq, optionsLength);
+				System.arraycopy(options, 0, segment, at, optionsLength);
+				at += optionsLength;
+			}
+			readFromWWindow(segment, at, len, pointer);
+			if (ecn)
+				Packet.setEcnCapable(segment, 0);
+			handedOver = true;
+			manager.sendPooledPkt(localAddr, remoteAddr, segment, segmentLength);
+		} finally {
+			if (!handedOver)
+				manager.releaseBuffer(segment);
+		}
+		if (ack) {
+			clearPendingAck();
+			acksPiggybacked++;
 		}
 	}
 
@@ -1067,9 +1627,9 @@ public class TCPSock {
 			return;
 
 		System.out.print("{");
-		for (int i = 0; i < seqNumbers.size(); i++) {
-			System.out.print(seqNumbers.get(i));
-			if (i != seqNumbers.size() - 1) {
+		for (int i = 0; i < inFlight.size(); i++) {
+			System.out.print(inFlight.end(i));
+			if (i != inFlight.size() - 1) {
 				System.out.print(",");
 			}
 		}
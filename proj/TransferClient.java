@@ -26,6 +26,12 @@ public class TransferClient extends FishThread {
     private long startTime;
     private long finishTime;
     private int pos;
+    // reading back what the server echoes: bytes received so far, and the buffer they are read into
+    private boolean echo;
+    private int received;
+    private byte[] echoBuf;
+    // bulk mode: the socket is corked while writing, so that only full segments go out
+    private boolean cork;
 
     public TransferClient(Manager manager, Node node, TCPSock sock, int amount,
                           long interval, int sz) {
@@ -37,16 +43,40 @@ public class TransferClient extends FishThread {
         this.startTime = 0;
         this.finishTime = 0;
         this.pos = 0;
+        this.echo = false;
+        this.received = 0;
+        this.cork = false;
 
         this.setInterval(this.interval);
     }
 
+    /**
+     * Read back every byte sent, from a server that echoes them, and close the
+     * connection only once all of them have come back
+     *
+     * @param echo boolean Whether the server echoes. Off by default
+     */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+        this.echoBuf = echo ? new byte[buf.length] : null;
+    }
+
     public TransferClient(Manager manager, Node node, TCPSock sock, int amount) {
         this(manager, node, sock, amount,
              DEFAULT_CLIENT_INTERVAL,
              DEFAULT_BUFFER_SZ);
     }
 
+    /**
+     * Cork the socket while writing, and uncork it once everything is written,
+     * so that the writes go out in full segments whatever their sizes
+     *
+     * @param cork boolean Whether to cork. Off by default
+     */
+    public void setCork(boolean cork) {
+        this.cork = cork;
+    }
+
     public void execute() {
         if (sock.isConnectionPending()) {
             //node.logOutput("connecting...");
@@ -59,9 +89,24 @@ public class TransferClient extends FishThread {
                 node.logOutput("time = " + startTime + " msec");
                 node.logOutput("started");
                 node.logOutput("bytes to send = " + amount);
+                if (cork) {
+                    sock.setCork(true);
+                }
+            }
+
+            if (echo && !readEcho()) {
+                return;
             }
 
             if (amount == 0) {
+                if (sock.isCorked()) {
+                    // everything is written: the last partial segment goes now
+                    sock.setCork(false);
+                }
+                if (echo && received < pos) {
+                    // wait for the rest of the echo
+                    return;
+                }
                 // sending completed, initiate closure of connection
                 node.logOutput("time = " + manager.now());
                 node.logOutput("sending completed");
@@ -108,9 +153,18 @@ public class TransferClient extends FishThread {
             node.logOutput("time = " + manager.now() + " msec");
             node.logOutput("connection closed");
             node.logOutput("total bytes sent = " + pos);
+            if (echo) {
+                node.logOutput("total bytes echoed = " + received +
+                               ", acks piggybacked = " + sock.getAcksPiggybacked());
+            }
             node.logOutput("time elapsed = " +
                            (finishTime - startTime) + " msec");
             node.logOutput("Bps = " + pos * 1000.0 / (finishTime - startTime));
+            if (sock.isPacing() || !sock.getNoDelay() || cork) {
+                node.logOutput("segments sent = " + sock.getSegmentsSent() +
+                               ", resent = " + sock.getSegmentsResent() +
+                               ", paced = " + sock.getSegmentsPaced());
+            }
             // release the socket
             sock.release();
             this.stop();
@@ -120,4 +174,29 @@ public class TransferClient extends FishThread {
         node.logError("shouldn't reach here");
         System.exit(1);
     }
+
+    // read the bytes echoed so far, which must be the bytes sent, in order
+    // returns false if they are not, after releasing the connection
+    private boolean readEcho() {
+        while (received < pos) {
+            int index = received % echoBuf.length;
+            int count = sock.read(echoBuf, index, echoBuf.length - index);
+            if (count <= 0) {
+                return true;
+            }
+            for (int i = index; i < index + count; i++) {
+                if (echoBuf[i] != (byte) i) {
+                    node.logError("time = " + manager.now() + " msec");
+                    node.logError("echo corruption detected");
+                    node.logError("position = " + (received + i - index));
+                    node.logError("releasing connection...");
+                    sock.release();
+                    this.stop();
+                    return false;
+                }
+            }
+            received += count;
+        }
+        return true;
+    }
 }
@@ -19,6 +19,7 @@ public class TransferServer extends FishThread {
     private long serverInterval;
     private long workerInterval;
     private int sz;
+    private boolean echo;
 
     // default settings
     public static final long DEFAULT_SERVER_INTERVAL = 1000;
@@ -42,6 +43,7 @@ public class TransferServer extends FishThread {
         this.serverInterval = serverInterval;
         this.workerInterval = workerInterval;
         this.sz = sz;
+        this.echo = false;
 
         this.setInterval(this.serverInterval);
     }
@@ -60,6 +62,15 @@ public class TransferServer extends FishThread {
              DEFAULT_BUFFER_SZ);
     }
 
+    /**
+     * Write every byte received back to the client, on the same connection
+     *
+     * @param echo boolean Whether to echo. Off by default
+     */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
+
     public void execute() {
         if (!serverSock.isClosed()) {
             // try to accept an established connection
@@ -85,6 +96,8 @@ public class TransferServer extends FishThread {
         private TCPSock sock;
         private byte[] buf;
         private int pos;
+        // bytes written back, when echoing: buf holds the ones from echoed to pos
+        private int echoed;
 
         public TransferWorker(Manager manager, Node node, TCPSock sock,
                               long interval, int sz) {
@@ -92,6 +105,7 @@ public class TransferServer extends FishThread {
             this.sock = sock;
             this.buf = new byte[sz];
             this.pos = 0;
+            this.echoed = 0;
 
             this.setInterval(interval);
         }
@@ -102,6 +116,10 @@ public class TransferServer extends FishThread {
                 int index = pos % buf.length;
 
                 int len = buf.length - index;
+                if (echo) {
+                    // not over the bytes still to be written back
+                    len = Math.min(len, buf.length - (pos - echoed));
+                }
                 int count = sock.read(buf, index, len);
 
                 if (count == -1) {
@@ -134,6 +152,9 @@ public class TransferServer extends FishThread {
                 }
 
                 pos += count;
+                if (echo) {
+                    echoBack();
+                }
 
                 //node.logOutput("time = " + manager.now() + " msec");
                 //node.logOutput("bytes received = " + count);
@@ -143,7 +164,30 @@ public class TransferServer extends FishThread {
             node.logOutput("time = " + manager.now() + " msec");
             node.logOutput("connection closed");
             node.logOutput("total bytes received = " + pos);
+            if (echo) {
+                node.logOutput("total bytes echoed = " + echoed +
+                               ", acks piggybacked = " + sock.getAcksPiggybacked());
+            }
+            if (sock.isDelayedAck()) {
+                node.logOutput("segments received = " + sock.getSegmentsReceived() +
+                               ", acks sent = " + sock.getAcksSent() +
+                               ", delayed ack timeouts = " + sock.getAckTimeouts());
+            }
             this.stop();
         }
+
+        // write the bytes read and not written back yet, as many as the send buffer takes
+        private void echoBack() {
+            while (echoed < pos) {
+                int index = echoed % buf.length;
+                int len = Math.min(buf.length - index, pos - echoed);
+                int count = sock.write(buf, index, len);
+                if (count <= 0) {
+                    // the send buffer is full, or the client has closed
+                    return;
+                }
+                echoed += count;
+            }
+        }
     }
 }
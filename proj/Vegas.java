@@ -0,0 +1,72 @@
+// Vegas: delay based. Once a round, the lowest RTT of the round is compared with the lowest RTT ever (dMin)
+// to estimate how many segments wait in the bottleneck queue: cwnd * (rtt - dMin) / rtt
+// The window grows while fewer than vegas_alpha wait, and shrinks while more than vegas_beta do, so that
+// the queue stays short instead of filling up until a loss. Halves on loss like Reno
+public class Vegas implements CongestionControl {
+
+	// parameters for Vegas, in segments queued
+	private final double vegas_alpha = 2;
+	private final double vegas_beta = 4;
+	private final double vegas_gamma = 1; // slow start ends once this many are queued
+	private final double vegas_min_cwnd = 2;
+
+	private double cwnd = 1.0;
+	private double ssthresh = 64 * 1024;
+	private long dMin = 0; // the lowest RTT
+	private long vegas_rtt = 0; // the lowest RTT of this round, 0 before a sample
+	private long vegas_next_round_delivered = 0; // the round ends once a segment sent after this is ACKed
+
+	public double getCwnd() {
+		return cwnd;
+	}
+
+	public void onRttSample(long sampleRTT, long estRTT) {
+		sampleRTT = Math.max(1, sampleRTT);
+		if (dMin == 0 || sampleRTT < dMin)
+			dMin = sampleRTT;
+		if (vegas_rtt == 0 || sampleRTT < vegas_rtt)
+			vegas_rtt = sampleRTT;
+	}
+
+	public void onAck(long now, int ackedSegments, long sentTime, long deliveredAtSend, long delivered, int inFlight) {
+		// slow start doubles cwnd every round, so it ends as soon as a queue shows,
+		// at the window that fills the path, plus one
+		if (cwnd < ssthresh && vegas_rtt > 0 && cwnd * (vegas_rtt - dMin) / vegas_rtt > vegas_gamma) {
+			cwnd = Math.max(cwnd * dMin / vegas_rtt + 1, vegas_min_cwnd);
+			ssthresh = Math.min(ssthresh, cwnd - 1);
+		}
+
+		// once a round trip, when a segment sent after the previous round ended is ACKed
+		if (deliveredAtSend >= vegas_next_round_delivered && vegas_rtt > 0) {
+			vegas_next_round_delivered = delivered;
+			double queued = cwnd * (vegas_rtt - dMin) / vegas_rtt;
+			if (cwnd >= ssthresh) {
+				if (queued < vegas_alpha) {
+					cwnd += 1;
+				} else if (queued > vegas_beta) {
+					// and below ssthresh too, or the next ACKs would slow start it back
+					cwnd = Math.max(cwnd - 1, vegas_min_cwnd);
+					ssthresh = Math.min(ssthresh, cwnd - 1);
+				}
+			}
+			vegas_rtt = 0;
+		}
+
+		if (cwnd < ssthresh)
+			cwnd += ackedSegments; // slow start
+	}
+
+	public void onLoss(long now) {
+		ssthresh = Math.max(cwnd / 2.0, vegas_min_cwnd);
+		cwnd = ssthresh;
+	}
+
+	public void onTimeout(long now) {
+		ssthresh = Math.max(cwnd / 2.0, vegas_min_cwnd);
+		cwnd = 1.0;
+	}
+
+	public double getPacingRate() {
+		return 0;
+	}
+}